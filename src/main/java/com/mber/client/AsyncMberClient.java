@@ -0,0 +1,160 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.FilePath;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONObject;
+
+public class AsyncMberClient
+{
+  private final static int MAX_THREADS = 16;
+  private final static int MAX_QUEUED = 256;
+  private final static ListeningExecutorService sharedExecutor = MoreExecutors.listeningDecorator(newSharedPool());
+
+  private final MberClient mber;
+  private final ListeningExecutorService executor;
+
+  public AsyncMberClient(final MberClient mber)
+  {
+    this(mber, sharedExecutor);
+  }
+
+  public AsyncMberClient(final MberClient mber, final ListeningExecutorService executor)
+  {
+    this.mber = mber;
+    this.executor = executor;
+  }
+
+  private static ThreadPoolExecutor newSharedPool()
+  {
+    // Every call blocks on Mber, so the pool is capped. Once the queue is full, callers make the call themselves,
+    // which slows down whoever is submitting instead of piling up threads. Idle threads exit after a minute,
+    // so the pool costs nothing between builds.
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new DaemonThreadFactory("Mber async client"), new ThreadPoolExecutor.CallerRunsPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  public MberClient getClient()
+  {
+    return mber;
+  }
+
+  public ListenableFuture<JSONObject> login(final String username, final String password)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.login(username, password);
+      }
+    });
+  }
+
+  public ListenableFuture<JSONObject> mkproject(final String name, final String description)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.mkproject(name, description);
+      }
+    });
+  }
+
+  public ListenableFuture<JSONObject> mkbuild(final String name, final String description, final String alias, final BuildStatus... statuses)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.mkbuild(name, description, alias, statuses);
+      }
+    });
+  }
+
+  public ListenableFuture<JSONObject> updateBuild(final String name, final String description, final BuildStatus... statuses)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.updateBuild(name, description, statuses);
+      }
+    });
+  }
+
+  public ListenableFuture<JSONObject> mkpath(final String path)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.mkpath(path);
+      }
+    });
+  }
+
+  public ListenableFuture<JSONObject> upload(final FilePath path, final String directory, final String name, final String[] tags, final boolean overwrite)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.upload(path, directory, name, tags, overwrite);
+      }
+    });
+  }
+
+  public ListenableFuture<JSONObject> upload(final JSONObject content, final String directory, final String name, final String[] tags)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.upload(content, directory, name, tags);
+      }
+    });
+  }
+
+  public ListenableFuture<JSONObject> publishTestResults(final JSONObject json)
+  {
+    return executor.submit(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call()
+      {
+        return mber.publishTestResults(json);
+      }
+    });
+  }
+}
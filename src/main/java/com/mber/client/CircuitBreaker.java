@@ -0,0 +1,130 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CircuitBreaker
+{
+  public enum State
+  {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final static int FAILURE_THRESHOLD = 5;
+  private final static long OPEN_MILLIS = 30 * 1000;
+
+  // Every job talking to the same Mber shares one breaker.
+  private final static Map<String, CircuitBreaker> breakers = new HashMap<String, CircuitBreaker>();
+
+  private State state = State.CLOSED;
+  private int failures;
+  private long openedAt;
+  private boolean probing;
+  private long probeStartedAt;
+
+  public static CircuitBreaker forUrl(final String url)
+  {
+    String key;
+    try {
+      key = MberClient.baseUrlWithPath(url, "");
+    }
+    catch (MalformedURLException e) {
+      key = url;
+    }
+    synchronized (breakers) {
+      CircuitBreaker breaker = breakers.get(key);
+      if (breaker == null) {
+        breaker = new CircuitBreaker();
+        breakers.put(key, breaker);
+      }
+      return breaker;
+    }
+  }
+
+  public synchronized boolean allowRequest()
+  {
+    if (state == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MILLIS) {
+      state = State.HALF_OPEN;
+      probing = false;
+    }
+    if (state == State.HALF_OPEN) {
+      // Let a single probe through to see if Mber has recovered. A probe that never reports back is replaced.
+      if (probing && System.currentTimeMillis() - probeStartedAt < OPEN_MILLIS) {
+        return false;
+      }
+      probing = true;
+      probeStartedAt = System.currentTimeMillis();
+      return true;
+    }
+    return state == State.CLOSED;
+  }
+
+  public synchronized boolean isOpen()
+  {
+    return state == State.OPEN && System.currentTimeMillis() - openedAt < OPEN_MILLIS;
+  }
+
+  public synchronized void recordSuccess()
+  {
+    state = State.CLOSED;
+    failures = 0;
+    probing = false;
+  }
+
+  public synchronized void recordFailure()
+  {
+    ++failures;
+    if (state == State.HALF_OPEN || failures >= FAILURE_THRESHOLD) {
+      state = State.OPEN;
+      openedAt = System.currentTimeMillis();
+      probing = false;
+    }
+  }
+
+  public synchronized State getState()
+  {
+    return state;
+  }
+
+  public synchronized String describe()
+  {
+    if (state == State.OPEN) {
+      long seconds = Math.max(OPEN_MILLIS - (System.currentTimeMillis() - openedAt), 0) / 1000;
+      return "Unavailable after "+failures+" consecutive failures. Retrying in "+seconds+" seconds.";
+    }
+    if (state == State.HALF_OPEN) {
+      return "Checking whether Mber has recovered.";
+    }
+    if (failures > 0) {
+      return "Connected, with "+failures+" recent failures.";
+    }
+    return "Connected.";
+  }
+}
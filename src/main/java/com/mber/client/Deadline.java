@@ -0,0 +1,93 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class Deadline
+{
+  private final long expiresAt;
+  private final long millis;
+
+  private Deadline(final long expiresAt, final long millis)
+  {
+    this.expiresAt = expiresAt;
+    this.millis = millis;
+  }
+
+  public static Deadline none()
+  {
+    return new Deadline(Long.MAX_VALUE, 0);
+  }
+
+  public static Deadline after(final long millis)
+  {
+    if (millis <= 0) {
+      return none();
+    }
+    return new Deadline(System.currentTimeMillis() + millis, millis);
+  }
+
+  public boolean isBounded()
+  {
+    return expiresAt != Long.MAX_VALUE;
+  }
+
+  public boolean isExpired()
+  {
+    return isBounded() && System.currentTimeMillis() >= expiresAt;
+  }
+
+  public long getRemainingMillis()
+  {
+    if (!isBounded()) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(expiresAt - System.currentTimeMillis(), 0);
+  }
+
+  public long getMillis()
+  {
+    return millis;
+  }
+
+  public <T> T get(final Future<T> future) throws InterruptedException, ExecutionException, TimeoutException
+  {
+    if (!isBounded()) {
+      return future.get();
+    }
+    try {
+      return future.get(getRemainingMillis(), TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e) {
+      // Work that outlives the deadline is cancelled, which interrupts it even on a remote node.
+      future.cancel(true);
+      throw e;
+    }
+  }
+}
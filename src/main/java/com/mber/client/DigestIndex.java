@@ -0,0 +1,93 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DigestIndex
+{
+  private final static int MAX_ENTRIES = 50000;
+
+  // Maps an uploaded file's location to the SHA-256 of its content, oldest entries first.
+  private final LinkedHashMap<String, String> digests = new LinkedHashMap<String, String>();
+  private boolean changed;
+
+  public synchronized boolean contains(final String key, final String digest)
+  {
+    return digest != null && digest.equals(digests.get(key));
+  }
+
+  public synchronized void put(final String key, final String digest)
+  {
+    add(key, digest);
+    changed = true;
+  }
+
+  public synchronized void remove(final String key)
+  {
+    if (digests.remove(key) != null) {
+      changed = true;
+    }
+  }
+
+  public synchronized int size()
+  {
+    return digests.size();
+  }
+
+  public synchronized Map<String, String> snapshot()
+  {
+    // A copy can be saved while builds keep adding digests.
+    return new LinkedHashMap<String, String>(digests);
+  }
+
+  public synchronized void restore(final Map<String, String> saved)
+  {
+    for (Map.Entry<String, String> entry : saved.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+  public synchronized boolean takeChanged()
+  {
+    boolean wasChanged = changed;
+    changed = false;
+    return wasChanged;
+  }
+
+  private void add(final String key, final String digest)
+  {
+    // Re-inserting moves the entry to the end, so eviction drops the least recently uploaded file.
+    digests.remove(key);
+    digests.put(key, digest);
+    Iterator<Map.Entry<String, String>> itr = digests.entrySet().iterator();
+    while (digests.size() > MAX_ENTRIES && itr.hasNext()) {
+      itr.next();
+      itr.remove();
+    }
+  }
+}
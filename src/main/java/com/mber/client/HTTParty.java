@@ -27,41 +27,125 @@ package com.mber.client;
 import hudson.model.BuildListener;
 import java.io.File;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+import org.apache.commons.codec.binary.Base64OutputStream;
 import org.apache.commons.io.IOUtils;
-import org.apache.http.client.HttpClient;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.jenkinsci.plugins.mber.FileRangeEntity;
 import org.jenkinsci.plugins.mber.LoggingFileEntity;
+import org.jenkinsci.plugins.mber.UploadProgress;
 
 public class HTTParty
 {
   private final static String MBER_VERSION = "0.1.x";
 
+  // Connections are pooled for the whole JVM, so builds reuse TCP and TLS sessions with Mber.
+  private final static int MAX_CONNECTIONS = 64;
+  private final static int MAX_CONNECTIONS_PER_ROUTE = 16;
+  private final static long KEEP_ALIVE_MILLIS = 30 * 1000;
+  private final static long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+  private final static long EVICTION_PERIOD_MILLIS = 10 * 1000;
+
+  // Without timeouts, a Mber node that stops responding would hold a build's executor forever.
+  private static volatile int connectTimeoutMillis = 30 * 1000;
+  private static volatile int readTimeoutMillis = 120 * 1000;
+
+  // Request bodies at least this large are gzipped. Negative turns compression off.
+  private static volatile long compressionThreshold = -1;
+  private final static String[] COMPRESSIBLE_EXTENSIONS = { ".log", ".txt", ".xml", ".json", ".html", ".htm", ".csv", ".js", ".css", ".svg", ".md", ".properties", ".yml", ".yaml" };
+  // Hosts that rejected a compressed body, so we stop sending them.
+  private final static Set<String> uncompressedHosts = Collections.synchronizedSet(new HashSet<String>());
+
+  private static PoolingClientConnectionManager connectionManager;
+  private static DefaultHttpClient httpClient;
+  private static ScheduledExecutorService evictor;
+
+  // Reads a response body as it streams in, and returns the part of it worth keeping.
+  public interface BodyHandler
+  {
+    String handle(InputStream body) throws IOException;
+  }
+
   static public class Call
   {
     public final String method;
     public final URI uri;
     public final int code;
     public final String body;
+    public final Map<String, String> headers;
+    public final int attempts;
+    public final long latencyMillis;
     public Call(final String method, final URI uri, final int code, final String body) {
+      this(method, uri, code, body, new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER));
+    }
+    public Call(final String method, final URI uri, final int code, final String body, final Map<String, String> headers) {
+      this(method, uri, code, body, headers, 1);
+    }
+    public Call(final String method, final URI uri, final int code, final String body, final Map<String, String> headers, final int attempts) {
+      this(method, uri, code, body, headers, attempts, 0);
+    }
+    public Call(final String method, final URI uri, final int code, final String body, final Map<String, String> headers, final int attempts, final long latencyMillis) {
       this.method = method;
       this.uri = uri;
       this.code = code;
       this.body = body;
+      this.headers = headers;
+      this.attempts = attempts;
+      this.latencyMillis = latencyMillis;
+    }
+    public Call withAttempts(final int attempts) {
+      return new Call(method, uri, code, body, headers, attempts, latencyMillis);
+    }
+    public String getHeader(final String name) {
+      return headers.get(name);
+    }
+    public long getRetryAfterMillis() {
+      return parseRetryAfter(getHeader("Retry-After"));
     }
   }
 
@@ -70,22 +154,25 @@ public class HTTParty
     return get(url, null);
   }
 
-  public static Call get(String url, final JSONObject args) throws IOException
+  public static Call get(final String url, final JSONObject args) throws IOException
+  {
+    return get(url, args, null);
+  }
+
+  public static Call get(String url, final JSONObject args, final BodyHandler handler) throws IOException
   {
     if (args != null) {
       url += toQuery(args);
     }
 
     HttpGet request = new HttpGet(url);
-    return execute(request);
+    return execute(request, handler);
   }
 
   public static Call put(final String url, final JSONObject data) throws UnsupportedEncodingException, IOException
   {
-    HttpPut request = new HttpPut(url);
-    request.setEntity(toStringEntity(data));
-
-    return execute(request);
+    StringEntity entity = toStringEntity(data);
+    return send("PUT", url, entity, isCompressible(entity.getContentLength(), compressionThreshold));
   }
 
   public static Call put(final String url, final File file) throws IOException
@@ -110,6 +197,58 @@ public class HTTParty
     return execute(request);
   }
 
+  public static Call put(final String url, final File file, final UploadProgress progress) throws IOException
+  {
+    return put(url, file, progress, false);
+  }
+
+  public static Call put(final String url, final File file, final UploadProgress progress, final boolean compress) throws IOException
+  {
+    LoggingFileEntity entity = new LoggingFileEntity(file, progress);
+    entity.setContentType("application/octet-stream");
+
+    return send("PUT", url, entity, compress);
+  }
+
+  public static Call put(final String url, final File file, final long offset, final long length) throws IOException
+  {
+    return put(url, file, offset, length, null);
+  }
+
+  public static Call put(final String url, final File file, final long offset, final long length, final UploadProgress progress) throws IOException
+  {
+    // Sends one range of a resumable upload. The server acknowledges partial ranges with a 308.
+    FileRangeEntity entity = new FileRangeEntity(file, offset, length, progress);
+    entity.setContentType("application/octet-stream");
+
+    HttpPut request = new HttpPut(url);
+    request.addHeader("Content-Range", "bytes "+offset+"-"+(offset + length - 1)+"/"+file.length());
+    request.setEntity(entity);
+
+    return execute(request);
+  }
+
+  public static Call putSlice(final String url, final File file, final long offset, final long length) throws IOException
+  {
+    // Sends part of a file as a whole document of its own, so there's no Content-Range.
+    FileRangeEntity entity = new FileRangeEntity(file, offset, length);
+    entity.setContentType("application/octet-stream");
+
+    HttpPut request = new HttpPut(url);
+    request.setEntity(entity);
+
+    return execute(request);
+  }
+
+  public static Call status(final String url, final long total) throws IOException
+  {
+    // An empty range asks the server how much of a resumable upload it already has.
+    HttpPut request = new HttpPut(url);
+    request.addHeader("Content-Range", "bytes */"+total);
+
+    return execute(request);
+  }
+
   public static Call delete(String url, final JSONObject args) throws IOException
   {
     if (args != null) {
@@ -122,24 +261,264 @@ public class HTTParty
 
   public static Call post(final String url, final JSONObject data) throws UnsupportedEncodingException, IOException
   {
-    HttpPost request = new HttpPost(url);
-    request.setEntity(toStringEntity(data));
+    StringEntity entity = toStringEntity(data);
+    return send("POST", url, entity, isCompressible(entity.getContentLength(), compressionThreshold));
+  }
+
+  public static Call post(final String url, final JSONObject data, final String field, final ContentProducer content) throws IOException
+  {
+    // The content is base64 encoded into the field as it's written, so it's never held in memory.
+    EntityTemplate entity = new EntityTemplate(new Base64FieldProducer(data, field, content));
+    entity.setContentType("application/json; charset=utf-8");
+    return send("POST", url, entity, isCompressible(-1, compressionThreshold));
+  }
 
+  private static class Base64FieldProducer implements ContentProducer
+  {
+    private final JSONObject data;
+    private final String field;
+    private final ContentProducer content;
+
+    public Base64FieldProducer(final JSONObject data, final String field, final ContentProducer content)
+    {
+      this.data = data;
+      this.field = field;
+      this.content = content;
+    }
+
+    @Override
+    public void writeTo(final OutputStream output) throws IOException
+    {
+      // Writes the JSON object with its closing brace held back, then the streamed field.
+      String json = data.toString();
+      StringBuilder prefix = new StringBuilder(json.substring(0, json.length() - 1));
+      if (!data.isEmpty()) {
+        prefix.append(',');
+      }
+      prefix.append(JSONUtils.quote(field)).append(":\"");
+      output.write(prefix.toString().getBytes("UTF-8"));
+
+      Base64OutputStream base64 = new Base64OutputStream(new CloseShieldOutputStream(output), true, 0, null);
+      content.writeTo(base64);
+      base64.close();
+
+      output.write("\"}".getBytes("UTF-8"));
+      output.flush();
+    }
+  }
+
+  private static Call send(final String method, final String url, final HttpEntity entity, final boolean compress) throws IOException
+  {
+    if (compress && !uncompressedHosts.contains(getHostKey(URI.create(url)))) {
+      HttpEntityEnclosingRequestBase request = newRequest(method, url);
+      request.setEntity(new GzipCompressingEntity(entity));
+      Call call = execute(request);
+      if (!isCompressionRejected(call)) {
+        return call;
+      }
+      // The server might not take compressed bodies. Send this one as is.
+      HttpEntityEnclosingRequestBase retry = newRequest(method, url);
+      retry.setEntity(entity);
+      Call plain = execute(retry);
+      // A 415 says outright that compression is the problem. The others only do if the plain body gets through.
+      if (call.code == 415 || plain.code < 400) {
+        uncompressedHosts.add(getHostKey(request.getURI()));
+      }
+      return plain;
+    }
+    HttpEntityEnclosingRequestBase request = newRequest(method, url);
+    request.setEntity(entity);
     return execute(request);
   }
 
+  private static boolean isCompressionRejected(final Call call)
+  {
+    // Some servers and proxies can't take a chunked gzip body, and fail it with one of these instead of a 415.
+    if (call.code == 411 || call.code == 415 || call.code == 501) {
+      return true;
+    }
+    // Any other 400 is a real error, and sending the body again would only hide it behind a second one.
+    if (call.code != 400 || call.body == null) {
+      return false;
+    }
+    String body = call.body.toLowerCase(Locale.ENGLISH);
+    return body.contains("encoding") || body.contains("gzip");
+  }
+
+  private static HttpEntityEnclosingRequestBase newRequest(final String method, final String url)
+  {
+    if (method.equals("POST")) {
+      return new HttpPost(url);
+    }
+    return new HttpPut(url);
+  }
+
+  public static boolean isCompressible(final long length, final long threshold)
+  {
+    // Streamed bodies don't know their length up front, and are usually the large ones.
+    return threshold >= 0 && (length < 0 || length >= threshold);
+  }
+
+  public static boolean isCompressible(final File file, final long threshold)
+  {
+    // Only text compresses well. Archives and binaries would just cost CPU.
+    String name = file.getName().toLowerCase(Locale.ENGLISH);
+    for (String extension : COMPRESSIBLE_EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return isCompressible(file.length(), threshold);
+      }
+    }
+    return false;
+  }
+
+  private static String getHostKey(final URI uri)
+  {
+    return uri.getScheme()+"://"+uri.getAuthority();
+  }
+
   private static Call execute(final HttpUriRequest request) throws IOException
   {
-    HttpClient client = new DefaultHttpClient();
+    return execute(request, null);
+  }
+
+  private static Call execute(final HttpUriRequest request, final BodyHandler handler) throws IOException
+  {
+    request.addHeader("REST-API-Version", MBER_VERSION);
+    HttpParams params = request.getParams();
+    HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+    HttpConnectionParams.setSoTimeout(params, readTimeoutMillis);
+    // Waiting for a pooled connection is bounded the same as opening a new one.
+    params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, connectTimeoutMillis);
+    // Requests to the same host are rate limited together, no matter which build sends them.
+    RequestGovernor governor = RequestGovernor.forUri(request.getURI());
     try {
-      request.addHeader("REST-API-Version", MBER_VERSION);
-      HttpResponse response = client.execute(request);
-      String body = toString(response.getEntity().getContent());
-      return new Call(request.getMethod(), request.getURI(), response.getStatusLine().getStatusCode(), body);
+      governor.acquire();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to send "+request.getMethod()+" "+request.getURI());
+    }
+    HttpEntity entity = null;
+    // Latency covers the exchange with the server, not time spent waiting on the governor.
+    long started = System.currentTimeMillis();
+    try {
+      HttpResponse response = getHttpClient().execute(request);
+      entity = response.getEntity();
+      String body = "";
+      if (entity != null) {
+        body = handler == null ? toString(entity.getContent()) : handler.handle(entity.getContent());
+      }
+      Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+      for (Header header : response.getAllHeaders()) {
+        headers.put(header.getName(), header.getValue());
+      }
+      long latency = System.currentTimeMillis() - started;
+      Call call = new Call(request.getMethod(), request.getURI(), response.getStatusLine().getStatusCode(), body, headers, 1, latency);
+      if (call.code == 429 || call.code == 503) {
+        long retryAfter = call.getRetryAfterMillis();
+        if (retryAfter > 0) {
+          governor.pause(retryAfter);
+        }
+      }
+      return call;
+    }
+    catch (IOException e) {
+      // Aborting drops the connection instead of handing a half-read one back to the pool.
+      request.abort();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      request.abort();
+      throw e;
     }
     finally {
-      client.getConnectionManager().shutdown();
+      // Consuming the entity releases the connection back to the pool.
+      EntityUtils.consumeQuietly(entity);
+      governor.release();
+    }
+  }
+
+  static long parseRetryAfter(final String value)
+  {
+    // Retry-After is either a number of seconds or an HTTP date.
+    if (value == null || value.trim().isEmpty()) {
+      return -1;
+    }
+    try {
+      return Math.max(Long.parseLong(value.trim()) * 1000, 0);
+    }
+    catch (NumberFormatException e) {
+      try {
+        Date date = DateUtils.parseDate(value.trim());
+        return Math.max(date.getTime() - System.currentTimeMillis(), 0);
+      }
+      catch (DateParseException ex) {
+        return -1;
+      }
+    }
+  }
+
+  private static synchronized DefaultHttpClient getHttpClient()
+  {
+    if (httpClient == null) {
+      connectionManager = new PoolingClientConnectionManager();
+      connectionManager.setMaxTotal(MAX_CONNECTIONS);
+      connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+      httpClient = new DefaultHttpClient(connectionManager);
+      // Ask for gzipped responses, and decode them before anyone reads the body.
+      httpClient.addRequestInterceptor(new RequestAcceptEncoding());
+      httpClient.addResponseInterceptor(new ResponseContentEncoding());
+      httpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+        @Override
+        public long getKeepAliveDuration(final HttpResponse response, final HttpContext context)
+        {
+          // Servers that don't send a Keep-Alive header would otherwise keep connections forever.
+          long duration = super.getKeepAliveDuration(response, context);
+          if (duration < 0 || duration > KEEP_ALIVE_MILLIS) {
+            return KEEP_ALIVE_MILLIS;
+          }
+          return duration;
+        }
+      });
+
+      evictor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Mber idle connection evictor"));
+      final PoolingClientConnectionManager manager = connectionManager;
+      evictor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run()
+        {
+          manager.closeExpiredConnections();
+          manager.closeIdleConnections(IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+      }, EVICTION_PERIOD_MILLIS, EVICTION_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    return httpClient;
+  }
+
+  public static void configureCompression(final long threshold)
+  {
+    compressionThreshold = threshold;
+  }
+
+  public static void configureTimeouts(final int connectMillis, final int readMillis)
+  {
+    // Zero waits forever, matching HttpClient's own meaning.
+    connectTimeoutMillis = Math.max(connectMillis, 0);
+    readTimeoutMillis = Math.max(readMillis, 0);
+  }
+
+  public static synchronized void shutdown()
+  {
+    if (evictor != null) {
+      evictor.shutdownNow();
+      evictor = null;
+    }
+    if (connectionManager != null) {
+      connectionManager.shutdown();
+      connectionManager = null;
     }
+    httpClient = null;
   }
 
   private static String toString(final InputStream input) throws IOException
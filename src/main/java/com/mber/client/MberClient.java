@@ -24,24 +24,42 @@ THE SOFTWARE.
 */
 
 package com.mber.client;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import hudson.FilePath;
 import hudson.model.BuildListener;
 import java.io.File;
+import java.io.InputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import net.sf.json.JSON;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import net.sf.json.JSONSerializer;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.entity.ContentProducer;
+import org.jenkinsci.plugins.mber.ArtifactInfoCallable;
+import org.jenkinsci.plugins.mber.BatchUploadCallable;
+import org.jenkinsci.plugins.mber.CallRecord;
+import org.jenkinsci.plugins.mber.FileDigestCallable;
 import org.jenkinsci.plugins.mber.FileUploadCallable;
 
 public class MberClient
@@ -70,28 +88,85 @@ public class MberClient
     return resolvedUrl.toString();
   }
 
+  public static class Artifact
+  {
+    public final FilePath path;
+    public final String folder;
+    public final String name;
+    public final String[] tags;
+
+    public Artifact(final FilePath path, final String folder, final String name, final String[] tags)
+    {
+      this.path = path;
+      this.folder = folder;
+      this.name = name;
+      this.tags = tags;
+    }
+  }
+
+  private static class StreamedField
+  {
+    private final String field;
+    private final ContentProducer content;
+
+    public StreamedField(final String field, final ContentProducer content)
+    {
+      this.field = field;
+      this.content = content;
+    }
+  }
+
+  private interface Request
+  {
+    HTTParty.Call send() throws IOException;
+  }
+
   private final String url;
   private final String application;
-  private String accessToken;
-  private String applicationId;
-  private String projectId;
-  private String buildId;
-  private JSONArray buildStatus;
-  private BuildListener listener;
-  private final List<HTTParty.Call> callHistory;
+  private volatile String accessToken;
+  private volatile String applicationId;
+  private volatile String projectId;
+  private volatile String buildId;
+  private volatile JSONArray buildStatus;
+  private volatile BuildListener listener;
+  private volatile long uploadChunkSize;
+  private volatile DigestIndex digestIndex;
+  private volatile TokenCache tokenCache;
+  private volatile ProjectIndex projectIndex;
+  private volatile RetryPolicy retryPolicy = new RetryPolicy();
+  private volatile Deadline deadline = Deadline.none();
+  private volatile long compressionThreshold = -1;
+  private volatile String projectKey;
+  // Credentials are kept in memory, never in toJSON(), so an expired token can be replaced mid-build.
+  private volatile String username;
+  private volatile String password;
+  private final AtomicInteger digestHits = new AtomicInteger();
+  private final AtomicInteger digestMisses = new AtomicInteger();
+  // Only what's needed to debug a call is kept, not the response bodies, which can be large.
+  private final List<CallRecord> callHistory;
+  // Maps folder aliases like "build/jenkins/" to their directory IDs, so shared parents are only created once.
+  private final Map<String, String> directoryCache;
+  // The application ID the cached folders were created under.
+  private volatile String directoryRoot;
+  // Maps directory IDs to the documents in them by name, so overwrites don't list a folder per file.
+  private final Map<String, Map<String, String>> documentCache;
 
   public MberClient(String url, String application)
   {
     this.url = url;
     this.application = application;
-    this.callHistory = new ArrayList();
+    this.callHistory = Collections.synchronizedList(new ArrayList<CallRecord>());
+    this.directoryCache = new ConcurrentHashMap<String, String>();
+    this.documentCache = new ConcurrentHashMap<String, Map<String, String>>();
   }
 
   public MberClient(final JSONObject json)
   {
     this.url = json.getString("url");
     this.application = json.getString("application");
-    this.callHistory = new ArrayList();
+    this.callHistory = Collections.synchronizedList(new ArrayList<CallRecord>());
+    this.directoryCache = new ConcurrentHashMap<String, String>();
+    this.documentCache = new ConcurrentHashMap<String, Map<String, String>>();
     setOrClearAccessToken(json);
     setOrClearApplicationId(json);
     setOrClearProjectId(json);
@@ -122,6 +197,31 @@ public class MberClient
     return listener;
   }
 
+  public void setUploadChunkSize(final long bytes)
+  {
+    this.uploadChunkSize = bytes;
+  }
+
+  public long getUploadChunkSize()
+  {
+    return uploadChunkSize;
+  }
+
+  public void setDigestIndex(final DigestIndex index)
+  {
+    this.digestIndex = index;
+  }
+
+  public int getDigestHits()
+  {
+    return digestHits.get();
+  }
+
+  public int getDigestMisses()
+  {
+    return digestMisses.get();
+  }
+
   public String getURL()
   {
     return this.url;
@@ -140,17 +240,70 @@ public class MberClient
 
   public JSONObject login(final String username, final String password)
   {
-    JSONObject response = doLogin(username, password, getApplication());
-    if (response.getString("status").equals("Success")) {
-      return response;
+    setCredentials(username, password);
+    if (tokenCache != null) {
+      JSONObject cached = tokenCache.get(getTokenKey(), password);
+      if (cached != null) {
+        setSession(cached);
+        return cached;
+      }
     }
-    // It's possible we have an alias that's also a UUID. Retry the login as an alias.
-    if (isUUID(getRawApplication())) {
-      return doLogin(username, password, makeAlias(getRawApplication()));
+    return loginWithoutCache(username, password);
+  }
+
+  private JSONObject loginWithoutCache(final String username, final String password)
+  {
+    // It's possible we have an alias that's also a UUID, in which case we try both forms.
+    // Start with whichever form worked last time, so we don't log in twice on every build.
+    String clientId = getApplication();
+    String fallbackId = isUUID(getRawApplication()) ? makeAlias(getRawApplication()) : null;
+    if (fallbackId != null && tokenCache != null && fallbackId.equals(tokenCache.getClientId(getTokenKey()))) {
+      fallbackId = clientId;
+      clientId = tokenCache.getClientId(getTokenKey());
+    }
+
+    JSONObject response = doLogin(username, password, clientId);
+    if (!response.getString("status").equals("Success") && fallbackId != null) {
+      clientId = fallbackId;
+      response = doLogin(username, password, clientId);
+    }
+    if (response.getString("status").equals("Success") && tokenCache != null) {
+      tokenCache.put(getTokenKey(), password, clientId, response);
     }
     return response;
   }
 
+  private synchronized boolean refreshLogin(final String rejectedToken)
+  {
+    if (this.username == null) {
+      return false;
+    }
+    // Another thread may have already replaced the rejected token.
+    if (getAccessToken() != null && !getAccessToken().equals(rejectedToken)) {
+      return true;
+    }
+    if (tokenCache != null) {
+      tokenCache.invalidate(getTokenKey());
+    }
+    return loginWithoutCache(this.username, this.password).getString("status").equals("Success");
+  }
+
+  public void setCredentials(final String username, final String password)
+  {
+    this.username = username;
+    this.password = password;
+  }
+
+  public void setTokenCache(final TokenCache cache)
+  {
+    this.tokenCache = cache;
+  }
+
+  private String getTokenKey()
+  {
+    return TokenCache.key(getURL(), getRawApplication(), this.username);
+  }
+
   private JSONObject doLogin(final String username, final String password, final String clientId)
   {
     JSONObject data = new JSONObject();
@@ -160,11 +313,22 @@ public class MberClient
     data.put("client_id", clientId);
     data.put("transactionId", generateTransactionId());
     JSONObject jsonResponse = post("service/json/oauth/accesstoken", data);
-    setOrClearAccessToken(jsonResponse);
-    setOrClearApplicationId(jsonResponse);
+    setSession(jsonResponse);
     return jsonResponse;
   }
 
+  private void setSession(final JSONObject json)
+  {
+    setOrClearAccessToken(json);
+    setOrClearApplicationId(json);
+    // Cached folders belong to an application root. A refreshed token for the same application keeps them,
+    // otherwise a mid-build refresh would strand folders that are still being created under their parents.
+    if (!getApplicationId().isEmpty() && !getApplicationId().equals(directoryRoot)) {
+      directoryCache.clear();
+      directoryRoot = getApplicationId();
+    }
+  }
+
   public JSONObject upload(final String path, final String directory, final String name, final String[] tags, final boolean overwrite)
   {
     return upload(new FilePath(new File(path)), directory, name, tags, overwrite);
@@ -173,35 +337,22 @@ public class MberClient
   public JSONObject upload(final FilePath path, final String directory, final String name, final String[] tags, final boolean overwrite)
   {
     try {
-      JSONObject data = new JSONObject();
-      data.put("name", name);
-      data.put("size", path.length());
-      data.put("directoryId", directory);
-      data.put("access_token", getAccessToken());
-      data.put("transactionId", generateTransactionId());
-      data.put("tags", tags);
-      JSONObject response = post("service/json/data/upload", data);
-      if (response.getString("status").equals("Success")) {
-        response = path.act(new FileUploadCallable(response.getString("url"), getListener()));
-      } else if (response.getString("status").equals("Duplicate") && overwrite) {
-        response = readdir(directory);
-        if (response.getString("status").equals("Success") && response.has("result")) {
-          JSONObject result = response.getJSONObject("result");
-          if (result.has("documents")) {
-            JSONArray documents = result.getJSONArray("documents");
-            Iterator<JSONObject> itr = documents.iterator();
-            while (itr.hasNext()) {
-              JSONObject item = itr.next();
-              if (item.has("name") && item.getString("name").equals(name) && item.has("documentId")) {
-                response = put("service/json/data/upload/"+item.getString("documentId"), data);
-                if (response.getString("status").equals("Success")) {
-                  response = path.act(new FileUploadCallable(response.getString("url"), getListener()));
-                }
-                break;
-              }
-            }
-          }
+      // Skip files whose content matches what we last uploaded to the same folder and name.
+      String digestKey = getURL()+"|"+getApplicationId()+"|"+directory+"/"+name;
+      String digest = null;
+      if (digestIndex != null) {
+        digest = act(path, new FileDigestCallable());
+        if (digestIndex.contains(digestKey, digest)) {
+          digestHits.incrementAndGet();
+          JSONObject skipped = MberJSON.success();
+          skipped.put("skipped", true);
+          return skipped;
         }
+        digestMisses.incrementAndGet();
+      }
+      JSONObject response = doUpload(path, directory, name, tags, overwrite);
+      if (digest != null && response.getString("status").equals("Success")) {
+        digestIndex.put(digestKey, digest);
       }
       return response;
     }
@@ -209,7 +360,198 @@ public class MberClient
       return MberJSON.failed(e);
     }
     catch (IOException e) {
-      return MberJSON.failed(e);
+      return deadline.isExpired() ? MberJSON.failed(getDeadlineError()) : MberJSON.failed(e);
+    }
+  }
+
+  private JSONObject doUpload(final FilePath path, final String directory, final String name, final String[] tags, final boolean overwrite) throws IOException, InterruptedException
+  {
+    JSONObject response = reserveUpload(path.length(), directory, name, tags, overwrite);
+    if (response.getString("status").equals("Success")) {
+      response = act(path, new FileUploadCallable(response.getString("url"), getListener(), getUploadChunkSize(), compressionThreshold));
+    }
+    return response;
+  }
+
+  private JSONObject reserveUpload(final long size, final String directory, final String name, final String[] tags, final boolean overwrite)
+  {
+    // Asks Mber for a URL to upload the file to, replacing an existing document when overwriting.
+    JSONObject data = new JSONObject();
+    data.put("name", name);
+    data.put("size", size);
+    data.put("directoryId", directory);
+    data.put("access_token", getAccessToken());
+    data.put("transactionId", generateTransactionId());
+    data.put("tags", tags);
+    JSONObject response = post("service/json/data/upload", data);
+    if (response.getString("status").equals("NotFound")) {
+      forgetDirectory(directory);
+    }
+    if (response.getString("status").equals("Success")) {
+      // Keep the folder's cached listing in step with the document we just created.
+      Map<String, String> documents = documentCache.get(directory);
+      if (documents != null) {
+        if (response.has("documentId")) {
+          documents.put(name, response.getString("documentId"));
+        }
+        else {
+          documents.remove(name);
+        }
+      }
+    }
+    else if (response.getString("status").equals("Duplicate") && overwrite) {
+      String documentId = findDocumentId(directory, name);
+      if (documentId != null) {
+        response = put("service/json/data/upload/"+documentId, data);
+      }
+    }
+    return response;
+  }
+
+  private String findDocumentId(final String directory, final String name)
+  {
+    // Each folder is listed once and reused for every overwrite in it.
+    // A missing name means the listing is older than the document, so it's fetched again.
+    Map<String, String> documents = documentCache.get(directory);
+    if (documents == null || !documents.containsKey(name)) {
+      documents = lsdocuments(directory);
+      documentCache.put(directory, documents);
+    }
+    return documents.get(name);
+  }
+
+  public List<JSONObject> upload(final FilePath root, final List<Artifact> artifacts, final boolean overwrite, final int threads)
+  {
+    List<JSONObject> results = new ArrayList<JSONObject>();
+    for (int i = 0; i < artifacts.size(); ++i) {
+      results.add(null);
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1), new DaemonThreadFactory("Mber upload reservation"));
+    try {
+      // One remoting call gathers every artifact's size, and its digest when skipping unchanged files.
+      JSONArray paths = new JSONArray();
+      for (Artifact artifact : artifacts) {
+        paths.add(artifact.path.getRemote());
+      }
+      final JSONArray infos = act(root, new ArtifactInfoCallable(paths, digestIndex != null));
+
+      // Reserve upload URLs concurrently from the master.
+      List<Future<JSONObject>> reservations = new ArrayList<Future<JSONObject>>();
+      for (int i = 0; i < artifacts.size(); ++i) {
+        final Artifact artifact = artifacts.get(i);
+        final JSONObject info = infos.getJSONObject(i);
+        reservations.add(pool.submit(new Callable<JSONObject>() {
+          @Override
+          public JSONObject call()
+          {
+            return reserveArtifact(artifact, info, overwrite);
+          }
+        }));
+      }
+
+      JSONArray manifest = new JSONArray();
+      List<Integer> manifestIndexes = new ArrayList<Integer>();
+      for (int i = 0; i < reservations.size(); ++i) {
+        JSONObject reservation;
+        try {
+          reservation = deadline.get(reservations.get(i));
+        }
+        catch (ExecutionException e) {
+          reservation = MberJSON.failed(e);
+        }
+        catch (TimeoutException e) {
+          reservation = MberJSON.failed(getDeadlineError());
+        }
+        if (reservation.getString("status").equals("Success") && reservation.has("url")) {
+          JSONObject entry = new JSONObject();
+          entry.put("path", artifacts.get(i).path.getRemote());
+          entry.put("url", reservation.getString("url"));
+          manifest.add(entry);
+          manifestIndexes.add(i);
+        }
+        results.set(i, reservation);
+      }
+
+      // One remoting call uploads every reserved file from the node that has them.
+      if (!manifest.isEmpty()) {
+        JSONObject batch = act(root, new BatchUploadCallable(manifest, getListener(), getUploadChunkSize(), threads, compressionThreshold));
+        JSONArray uploads = MberJSON.getArray(batch, "results");
+        for (int j = 0; j < manifestIndexes.size(); ++j) {
+          int i = manifestIndexes.get(j);
+          JSONObject upload = j < uploads.size() ? uploads.getJSONObject(j) : batch;
+          JSONObject reservation = results.get(i);
+          if (upload.getString("status").equals("Success") && reservation.has("digest")) {
+            digestIndex.put(reservation.getString("digestKey"), reservation.getString("digest"));
+          }
+          results.set(i, upload);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      fillFailures(results, MberJSON.failed(e));
+    }
+    catch (IOException e) {
+      fillFailures(results, deadline.isExpired() ? MberJSON.failed(getDeadlineError()) : MberJSON.failed(e));
+    }
+    finally {
+      pool.shutdownNow();
+    }
+    return results;
+  }
+
+  private JSONObject reserveArtifact(final Artifact artifact, final JSONObject info, final boolean overwrite)
+  {
+    JSONObject response = mkpath(artifact.folder);
+    if (!response.getString("status").equals("Success")) {
+      return response;
+    }
+    String directory = response.getString("directoryId");
+
+    String digestKey = getURL()+"|"+getApplicationId()+"|"+directory+"/"+artifact.name;
+    String digest = MberJSON.getString(info, "digest");
+    if (digestIndex != null && !digest.isEmpty()) {
+      if (digestIndex.contains(digestKey, digest)) {
+        digestHits.incrementAndGet();
+        JSONObject skipped = MberJSON.success();
+        skipped.put("skipped", true);
+        return skipped;
+      }
+      digestMisses.incrementAndGet();
+    }
+
+    response = reserveUpload(info.getLong("size"), directory, artifact.name, artifact.tags, overwrite);
+    if (digestIndex != null && !digest.isEmpty()) {
+      response.put("digestKey", digestKey);
+      response.put("digest", digest);
+    }
+    return response;
+  }
+
+  private <T> T act(final FilePath path, final FilePath.FileCallable<T> callable) throws IOException, InterruptedException
+  {
+    if (!deadline.isBounded()) {
+      return path.act(callable);
+    }
+    // Work on the node is bounded by the deadline too. Cancelling it interrupts the node's thread.
+    try {
+      return deadline.get(path.actAsync(callable));
+    }
+    catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    catch (TimeoutException e) {
+      throw new IOException(getDeadlineError());
+    }
+  }
+
+  private static void fillFailures(final List<JSONObject> results, final JSONObject failure)
+  {
+    for (int i = 0; i < results.size(); ++i) {
+      if (results.get(i) == null || results.get(i).has("url")) {
+        results.set(i, failure);
+      }
     }
   }
 
@@ -228,6 +570,61 @@ public class MberClient
     return post("service/json/data/document", data);
   }
 
+  public JSONObject upload(final File file, final long offset, final long length, final String directory, final String name, final String[] tags, final boolean overwrite)
+  {
+    // Uploads part of a local file as its own document, like a segment of a running build's console log.
+    JSONObject response = reserveUpload(length, directory, name, tags, overwrite);
+    if (!response.getString("status").equals("Success")) {
+      return response;
+    }
+    // The slice goes to Mber's storage, so it gets the same retries and circuit breaker as calls to Mber.
+    CircuitBreaker breaker = CircuitBreaker.forUrl(this.url);
+    if (!breaker.allowRequest()) {
+      return MberJSON.failed("Mber at "+this.url+" is unavailable. Skipping calls until it recovers.");
+    }
+    final String uploadUrl = response.getString("url");
+    try {
+      HTTParty.Call call;
+      try {
+        call = execute("PUT", null, new Request() {
+          @Override
+          public HTTParty.Call send() throws IOException
+          {
+            return HTTParty.putSlice(uploadUrl, file, offset, length);
+          }
+        });
+      }
+      catch (IOException e) {
+        breaker.recordFailure();
+        throw e;
+      }
+      recordOutcome(breaker, call);
+      recordCall(call);
+      if (call.code < 200 || call.code >= 300) {
+        return MberJSON.failed("Upload of "+name+" failed with HTTP "+call.code+" "+call.body);
+      }
+      return response;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return MberJSON.failed(e);
+    }
+    catch (IOException e) {
+      return MberJSON.failed(e);
+    }
+  }
+
+  public JSONObject upload(final ContentProducer content, final String directory, final String name, final String[] tags)
+  {
+    JSONObject data = new JSONObject();
+    data.put("name", name);
+    data.put("directoryId", directory);
+    data.put("access_token", getAccessToken());
+    data.put("transactionId", generateTransactionId());
+    data.put("tags", tags);
+    return post("service/json/data/document", data, "content", content);
+  }
+
   public JSONObject getBuildCountSince(final String name, final Date startDate)
   {
     JSONObject data = new JSONObject();
@@ -272,7 +669,7 @@ public class MberClient
     }
   }
 
-  public JSONObject mkpath(String path)
+  private static String[] splitPath(String path)
   {
     // Paths always start from the application root, with folders names split by forward slashes.
     path = path.replaceAll("//+", "/");
@@ -282,22 +679,160 @@ public class MberClient
     if (path.endsWith("/")) {
       path = path.substring(0, path.length() - 1);
     }
+    return path.split("/");
+  }
+
+  public JSONObject mkpath(final String path)
+  {
+    String[] folders = splitPath(path);
+    JSONObject response = mkpath(folders);
+    if (response.getString("status").equals("NotFound") && forgetPath(folders)) {
+      // A cached parent was deleted out from under us. Walk the whole path again.
+      response = mkpath(folders);
+    }
+    return response;
+  }
 
+  public JSONObject mktree(final Collection<String> paths, final int threads)
+  {
+    // Group every unique folder by depth, so each one is created exactly once after its parent.
+    List<Map<String, String[]>> levels = new ArrayList<Map<String, String[]>>();
+    for (String path : paths) {
+      String[] folders = splitPath(path);
+      String alias = "";
+      for (int i = 0; i < folders.length; ++i) {
+        String parentAlias = alias;
+        alias += folders[i] + "/";
+        if (levels.size() <= i) {
+          levels.add(new LinkedHashMap<String, String[]>());
+        }
+        levels.get(i).put(alias, new String[] { folders[i], parentAlias });
+      }
+    }
+
+    JSONArray errors = new JSONArray();
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1), new DaemonThreadFactory("Mber folder creation"));
+    try {
+      // Siblings at the same depth are created concurrently.
+      for (Map<String, String[]> level : levels) {
+        Map<String, Future<JSONObject>> created = new LinkedHashMap<String, Future<JSONObject>>();
+        for (Map.Entry<String, String[]> node : level.entrySet()) {
+          final String alias = node.getKey();
+          final String folder = node.getValue()[0];
+          final String parentAlias = node.getValue()[1];
+          if (directoryCache.containsKey(alias)) {
+            continue;
+          }
+          final String parent = parentAlias.isEmpty() ? getApplicationId() : directoryCache.get(parentAlias);
+          if (parent == null) {
+            // The parent wasn't created, so neither is anything under it. Say so, rather than skipping it silently.
+            errors.add("Skipped folder "+alias+" because its parent folder "+parentAlias+" wasn't created");
+            continue;
+          }
+          created.put(alias, pool.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call()
+            {
+              return mkdir(folder, parent, alias);
+            }
+          }));
+        }
+        for (Map.Entry<String, Future<JSONObject>> result : created.entrySet()) {
+          JSONObject response;
+          try {
+            response = deadline.get(result.getValue());
+          }
+          catch (ExecutionException e) {
+            response = MberJSON.failed(e);
+          }
+          catch (TimeoutException e) {
+            response = MberJSON.failed(getDeadlineError());
+          }
+          if (response.getString("status").equals("Success")) {
+            directoryCache.put(result.getKey(), response.getString("directoryId"));
+          }
+          else {
+            errors.add(MberJSON.getString(response, "error"));
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      errors.add("Interrupted while creating folders");
+    }
+    finally {
+      pool.shutdownNow();
+    }
+
+    if (!errors.isEmpty()) {
+      return MberJSON.failed(errors);
+    }
+    return MberJSON.success();
+  }
+
+  private boolean forgetPath(final String[] folders)
+  {
+    boolean forgotten = false;
+    String alias = "";
+    for (String folder : folders) {
+      alias += folder + "/";
+      forgotten |= directoryCache.remove(alias) != null;
+    }
+    return forgotten;
+  }
+
+  private JSONObject mkpath(final String[] folders)
+  {
+    // Skip over the longest prefix of the path that's already been created.
     String parent = getApplicationId();
-    JSONObject response = new JSONObject();
-    String[] folders = path.split("/");
     String alias = "";
+    int start = 0;
+    String prefix = "";
     for (int i = 0; i < folders.length; ++i) {
+      prefix += folders[i] + "/";
+      String cached = directoryCache.get(prefix);
+      if (cached == null) {
+        break;
+      }
+      parent = cached;
+      alias = prefix;
+      start = i + 1;
+    }
+
+    JSONObject response = MberJSON.success();
+    response.put("directoryId", parent);
+    for (int i = start; i < folders.length; ++i) {
       alias += folders[i] + "/";
       response = mkdir(folders[i], parent, alias);
       if (!response.getString("status").equals("Success")) {
         break;
       }
       parent = response.getString("directoryId");
+      directoryCache.put(alias, parent);
     }
     return response;
   }
 
+  public void forgetDirectory(final String directoryId)
+  {
+    // Drop the directory and everything cached beneath it.
+    List<String> aliases = new ArrayList<String>();
+    for (Map.Entry<String, String> entry : directoryCache.entrySet()) {
+      if (entry.getValue().equals(directoryId)) {
+        aliases.add(entry.getKey());
+      }
+    }
+    for (String alias : aliases) {
+      Iterator<String> itr = directoryCache.keySet().iterator();
+      while (itr.hasNext()) {
+        if (itr.next().startsWith(alias)) {
+          itr.remove();
+        }
+      }
+    }
+  }
+
   public JSONObject mkproject(final String name, final String description)
   {
     JSONObject data = new JSONObject();
@@ -311,36 +846,90 @@ public class MberClient
     data.put("transactionId", generateTransactionId());
     JSONObject response = post("service/json/build/project", data);
     if (response.getString("status").equals("Duplicate")) {
-      String thisProjectId = lsproject().get(name);
+      String thisProjectId = findProjectId(name);
       if (thisProjectId != null && !thisProjectId.isEmpty()) {
         response.put("status", "Success");
         response.put("projectId", thisProjectId);
       }
     }
     setOrClearProjectId(response);
+    if (projectIndex != null && !getProjectId().isEmpty()) {
+      projectKey = getProjectKey(name);
+      projectIndex.put(projectKey, getProjectId());
+    }
     return response;
   }
 
-  private Map<String, String> lsproject()
+  private String findProjectId(final String name)
   {
+    // Check the index first, then look the alias up directly, and only list every project as a last resort.
+    if (projectIndex != null) {
+      String projectId = projectIndex.get(getProjectKey(name));
+      if (projectId != null) {
+        return projectId;
+      }
+    }
+
     JSONObject data = new JSONObject();
     data.put("access_token", getAccessToken());
-    JSONObject response = get("service/json/build/project", data);
-    Map<String, String> projects = new HashMap<String, String>();
-    if (response.has("results")) {
-      JSONArray results = response.getJSONArray("results");
-      Iterator<JSONObject> itr = results.iterator();
-      while (itr.hasNext()) {
-        JSONObject item = itr.next();
-        if (item.has("alias")) {
-          projects.put(item.getString("alias"), item.getString("projectId"));
-        }
-        else {
-          projects.put(item.getString("name"), item.getString("projectId"));
-        }
+    JSONObject response = get("service/json/build/project/"+makeAlias(name), data);
+    if (response.getString("status").equals("Success") && response.has("projectId")) {
+      return response.getString("projectId");
+    }
+
+    Map<String, String> projects = lsproject();
+    if (projectIndex != null) {
+      for (Map.Entry<String, String> project : projects.entrySet()) {
+        projectIndex.put(getProjectKey(project.getKey()), project.getValue());
       }
     }
-    return projects;
+    return projects.get(name);
+  }
+
+  public void setRetryPolicy(final RetryPolicy policy)
+  {
+    this.retryPolicy = policy;
+  }
+
+  public void setCompressionThreshold(final long bytes)
+  {
+    // Text artifacts at least this large are gzipped on upload. Negative turns it off.
+    this.compressionThreshold = bytes;
+  }
+
+  public void setDeadline(final Deadline deadline)
+  {
+    this.deadline = deadline;
+  }
+
+  public Deadline getDeadline()
+  {
+    return this.deadline;
+  }
+
+  public String getDeadlineError()
+  {
+    return "Mber calls took longer than "+(deadline.getMillis() / 1000)+" seconds and were cancelled.";
+  }
+
+  public void setProjectIndex(final ProjectIndex index)
+  {
+    this.projectIndex = index;
+  }
+
+  private String getProjectKey(final String alias)
+  {
+    return ProjectIndex.key(getURL(), getApplicationId(), alias);
+  }
+
+  private Map<String, String> lsproject()
+  {
+    JSONObject data = new JSONObject();
+    data.put("access_token", getAccessToken());
+    // Projects are keyed by alias, falling back to their name when they don't have one.
+    MberJSON.Index projects = new MberJSON.Index(new HashMap<String, String>(), new String[] { "results" }, "projectId", "alias", "name");
+    get("service/json/build/project", data, projects);
+    return projects.getEntries();
   }
 
   public JSONObject mkbuild(final int number, final String description, final String alias)
@@ -363,6 +952,10 @@ public class MberClient
     data.put("access_token", getAccessToken());
     data.put("transactionId", generateTransactionId());
     JSONObject response = post("service/json/build/build", data);
+    if (response.getString("status").equals("NotFound") && projectIndex != null && projectKey != null) {
+      // The indexed project was deleted. Forget it so the next build looks it up again.
+      projectIndex.remove(projectKey);
+    }
     setOrClearBuildId(response);
     return response;
   }
@@ -428,62 +1021,114 @@ public class MberClient
     return result;
   }
 
-  private JSONObject readdir(final String folder) {
+  private JSONObject readdir(final String folder, final MberJSON.Index... indexes) {
     JSONObject data = new JSONObject();
     data.put("access_token", getAccessToken());
     String id = folder;
     if (!isUUID(folder)) {
       id = makeAlias(folder);
     }
-    return get("service/json/data/directory/" + id, data);
+    return get("service/json/data/directory/" + id, data, indexes);
   }
 
   private Map<String, String> lsdir(final String folder)
   {
-    JSONObject response = readdir(folder);
-    Map<String, String> directories = new HashMap<String, String>();
-    if (response.has("result")) {
-      JSONObject results = response.getJSONObject("result");
-      if (results.has("directories")) {
-        JSONArray folders = results.getJSONArray("directories");
-        Iterator<JSONObject> itr = folders.iterator();
-        while (itr.hasNext()) {
-          JSONObject item = itr.next();
-          directories.put(item.getString("name"), item.getString("directoryId"));
+    MberJSON.Index directories = new MberJSON.Index(new HashMap<String, String>(), new String[] { "result", "directories" }, "directoryId", "name");
+    readdir(folder, directories);
+    return directories.getEntries();
+  }
+
+  private Map<String, String> lsdocuments(final String folder)
+  {
+    MberJSON.Index documents = new MberJSON.Index(new ConcurrentHashMap<String, String>(), new String[] { "result", "documents" }, "documentId", "name");
+    readdir(folder, documents);
+    return documents.getEntries();
+  }
+
+  private JSONObject get(final String endpoint, final JSONObject data)
+  {
+    return send("GET", endpoint, data);
+  }
+
+  private JSONObject get(final String endpoint, final JSONObject data, final MberJSON.Index... indexes)
+  {
+    // Listings are streamed into the indexes instead of being parsed into a full JSON tree.
+    return send("GET", endpoint, data, new HTTParty.BodyHandler() {
+      @Override
+      public String handle(final InputStream body) throws IOException
+      {
+        try {
+          return MberJSON.summarize(body, indexes).toString();
+        }
+        catch (JsonProcessingException e) {
+          // Not JSON, like an error page from a proxy. Let the usual error handling report it.
+          return "";
         }
       }
-    }
-    return directories;
+    });
   }
 
-  private JSONObject get(final String endpoint, final JSONObject data)
+  private JSONObject put(final String endpoint, final JSONObject data)
   {
-    String mberResponse = "";
-    try {
-      HTTParty.Call call = HTTParty.get(getMberUrl(endpoint), data);
-      recordCall(call);
-      mberResponse = call.body;
-      return parseResponse(mberResponse);
-    }
-    catch (MalformedURLException e) {
-      JSONObject error = new JSONObject();
-      error.put("status", "Failed");
-      error.put("error", "Invalid Mber URL: "+this.url);
-      return error;
-    }
-    catch (Exception e) {
-      JSONObject error = new JSONObject();
-      error.put("status", "Failed");
-      error.put("error", mberResponse);
-      return error;
+    return send("PUT", endpoint, data);
+  }
+
+  private JSONObject post(final String endpoint, final JSONObject data)
+  {
+    return send("POST", endpoint, data);
+  }
+
+  private JSONObject post(final String endpoint, final JSONObject data, final String field, final ContentProducer content)
+  {
+    // Streams content into one field of the request, for bodies too large to build as a JSONObject.
+    return send("POST", endpoint, data, null, new StreamedField(field, content));
+  }
+
+  private JSONObject send(final String method, final String endpoint, final JSONObject data)
+  {
+    return send(method, endpoint, data, null);
+  }
+
+  private JSONObject send(final String method, final String endpoint, final JSONObject data, final HTTParty.BodyHandler handler)
+  {
+    return send(method, endpoint, data, handler, null);
+  }
+
+  private JSONObject send(final String method, final String endpoint, final JSONObject data, final HTTParty.BodyHandler handler, final StreamedField streamed)
+  {
+    JSONObject response = sendOnce(method, endpoint, data, handler, streamed);
+    // Tokens can expire mid-build. Log in again and retry once with the new token.
+    if (response.getString("status").equals("NotAuthorized") && data.has("access_token")) {
+      if (refreshLogin(data.getString("access_token"))) {
+        data.put("access_token", getAccessToken());
+        response = sendOnce(method, endpoint, data, handler, streamed);
+      }
     }
+    return response;
   }
 
-  private JSONObject put(final String endpoint, final JSONObject data)
+  private JSONObject sendOnce(final String method, final String endpoint, final JSONObject data, final HTTParty.BodyHandler handler, final StreamedField streamed)
   {
+    if (deadline.isExpired()) {
+      return MberJSON.failed(getDeadlineError());
+    }
+    // While Mber is down, fail fast instead of waiting on timeouts for every call.
+    CircuitBreaker breaker = CircuitBreaker.forUrl(this.url);
+    if (!breaker.allowRequest()) {
+      return MberJSON.failed("Mber at "+this.url+" is unavailable. Skipping calls until it recovers.");
+    }
     String mberResponse = "";
     try {
-      HTTParty.Call call = HTTParty.put(getMberUrl(endpoint), data);
+      String mberUrl = getMberUrl(endpoint);
+      HTTParty.Call call;
+      try {
+        call = execute(method, mberUrl, data, handler, streamed);
+      }
+      catch (IOException e) {
+        breaker.recordFailure();
+        throw e;
+      }
+      recordOutcome(breaker, call);
       recordCall(call);
       mberResponse = call.body;
       return parseResponse(mberResponse);
@@ -494,6 +1139,10 @@ public class MberClient
       error.put("error", "Invalid Mber URL: "+this.url);
       return error;
     }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return MberJSON.failed(e);
+    }
     catch (Exception e) {
       JSONObject error = new JSONObject();
       error.put("status", "Failed");
@@ -502,26 +1151,60 @@ public class MberClient
     }
   }
 
-  private JSONObject post(final String endpoint, final JSONObject data)
+  private static void recordOutcome(final CircuitBreaker breaker, final HTTParty.Call call)
   {
-    String mberResponse = "";
-    try {
-      HTTParty.Call call = HTTParty.post(getMberUrl(endpoint), data);
-      recordCall(call);
-      mberResponse = call.body;
-      return parseResponse(mberResponse);
+    if (RetryPolicy.isTransient(call.code) && !RetryPolicy.isThrottled(call)) {
+      breaker.recordFailure();
     }
-    catch (MalformedURLException e) {
-      JSONObject error = new JSONObject();
-      error.put("status", "Failed");
-      error.put("error", "Invalid Mber URL: "+this.url);
-      return error;
+    else {
+      breaker.recordSuccess();
     }
-    catch (Exception e) {
-      JSONObject error = new JSONObject();
-      error.put("status", "Failed");
-      error.put("error", mberResponse);
-      return error;
+  }
+
+  private HTTParty.Call execute(final String method, final String url, final JSONObject data, final HTTParty.BodyHandler handler, final StreamedField streamed) throws IOException, InterruptedException
+  {
+    return execute(method, data, new Request() {
+      @Override
+      public HTTParty.Call send() throws IOException
+      {
+        if (method.equals("GET")) {
+          return HTTParty.get(url, data, handler);
+        }
+        if (method.equals("PUT")) {
+          return HTTParty.put(url, data);
+        }
+        if (streamed != null) {
+          return HTTParty.post(url, data, streamed.field, streamed.content);
+        }
+        return HTTParty.post(url, data);
+      }
+    });
+  }
+
+  private HTTParty.Call execute(final String method, final JSONObject data, final Request request) throws IOException, InterruptedException
+  {
+    // Transient failures, like a 502 or a reset connection, are retried with backoff before giving up.
+    int attempt = 0;
+    while (true) {
+      ++attempt;
+      HTTParty.Call call;
+      try {
+        call = request.send();
+      }
+      catch (IOException e) {
+        long delay = retryPolicy.getDelay(attempt);
+        // Don't start a retry that the deadline would cut short.
+        if (delay >= deadline.getRemainingMillis() || !retryPolicy.shouldRetry(method, data, -1, attempt)) {
+          throw e;
+        }
+        Thread.sleep(delay);
+        continue;
+      }
+      long delay = retryPolicy.getDelay(attempt, call);
+      if (delay >= deadline.getRemainingMillis() || !retryPolicy.shouldRetry(method, data, call, attempt)) {
+        return call.withAttempts(attempt);
+      }
+      Thread.sleep(delay);
     }
   }
 
@@ -596,14 +1279,24 @@ public class MberClient
     return applicationId;
   }
 
-  public List<HTTParty.Call> getCallHistory()
+  public List<CallRecord> getCallHistory()
   {
     return callHistory;
   }
 
+  public List<CallRecord> takeCallHistory()
+  {
+    // Long lived clients hand their calls off as they go, so the history doesn't grow for the whole build.
+    synchronized (callHistory) {
+      List<CallRecord> calls = new ArrayList<CallRecord>(callHistory);
+      callHistory.clear();
+      return calls;
+    }
+  }
+
   private void recordCall(final HTTParty.Call call)
   {
-    callHistory.add(call);
+    callHistory.add(CallRecord.from(call));
   }
 
   private void setOrClearApplicationId(final JSONObject json)
@@ -681,8 +1374,9 @@ public class MberClient
     }
   }
 
-  private void recordBuildStatus(final BuildStatus... statuses)
+  public void recordBuildStatus(final BuildStatus... statuses)
   {
+    // Every later build update, like setting the build's folder, sends this status along with it.
     JSONArray statusList = new JSONArray();
     for (BuildStatus status : statuses) {
       statusList.add(status.toString());
@@ -24,15 +24,51 @@ THE SOFTWARE.
 */
 
 package com.mber.client;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.InputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
 import net.sf.json.JSONObject;
 import net.sf.json.JSONSerializer;
 
 public class MberJSON
 {
+  private final static JsonFactory factory = new JsonFactory();
+
+  // Collects one key and value from every object in a listing, like name to directoryId.
+  public static class Index
+  {
+    private final Map<String, String> entries;
+    private final List<String> path;
+    private final String valueField;
+    private final String[] keyFields;
+
+    public Index(final Map<String, String> entries, final String[] path, final String valueField, final String... keyFields)
+    {
+      this.entries = entries;
+      this.path = Arrays.asList(path);
+      this.valueField = valueField;
+      // Key fields are in order of preference. The first one an entry has is used.
+      this.keyFields = keyFields;
+    }
+
+    public Map<String, String> getEntries()
+    {
+      return entries;
+    }
+  }
+
   public static String getString(final JSONObject json, final String key)
   {
     if (json.has(key)) {
@@ -107,4 +143,113 @@ public class MberJSON
     e.printStackTrace(printer);
     return failed(writer.toString());
   }
+
+  public static JSONObject summarize(final InputStream input, final Index... indexes) throws IOException
+  {
+    // Streams a response, keeping its top level fields, like status, and filling the indexes.
+    // Nothing else is kept, so memory doesn't grow with the size of a listing.
+    for (Index index : indexes) {
+      index.entries.clear();
+    }
+    JSONObject summary = new JSONObject();
+    JsonParser parser = factory.createParser(input);
+    try {
+      if (parser.nextToken() == JsonToken.START_OBJECT) {
+        summarizeObject(parser, new ArrayList<String>(), summary, indexes);
+      }
+    }
+    finally {
+      parser.close();
+    }
+    return summary;
+  }
+
+  private static void summarizeObject(final JsonParser parser, final List<String> path, final JSONObject summary, final Index[] indexes) throws IOException
+  {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      path.add(field);
+      Index index = findIndex(indexes, path);
+      if (index != null && token == JsonToken.START_ARRAY) {
+        indexArray(parser, index);
+      }
+      else if (token == JsonToken.START_OBJECT && isIndexedPath(indexes, path)) {
+        summarizeObject(parser, path, null, indexes);
+      }
+      else if (summary != null && token.isScalarValue()) {
+        summary.put(field, toValue(parser, token));
+      }
+      else {
+        parser.skipChildren();
+      }
+      path.remove(path.size() - 1);
+    }
+  }
+
+  private static void indexArray(final JsonParser parser, final Index index) throws IOException
+  {
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+      Map<String, String> fields = new HashMap<String, String>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token.isScalarValue()) {
+          fields.put(field, parser.getText());
+        }
+        else {
+          parser.skipChildren();
+        }
+      }
+      String value = fields.get(index.valueField);
+      for (String keyField : index.keyFields) {
+        String key = fields.get(keyField);
+        if (key != null && value != null) {
+          index.entries.put(key, value);
+          break;
+        }
+      }
+    }
+  }
+
+  private static Index findIndex(final Index[] indexes, final List<String> path)
+  {
+    for (Index index : indexes) {
+      if (index.path.equals(path)) {
+        return index;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isIndexedPath(final Index[] indexes, final List<String> path)
+  {
+    for (Index index : indexes) {
+      if (index.path.size() > path.size() && index.path.subList(0, path.size()).equals(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Object toValue(final JsonParser parser, final JsonToken token) throws IOException
+  {
+    switch (token) {
+      case VALUE_TRUE:
+        return true;
+      case VALUE_FALSE:
+        return false;
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        return parser.getNumberValue();
+      case VALUE_NULL:
+        return JSONNull.getInstance();
+      default:
+        return parser.getText();
+    }
+  }
 }
@@ -0,0 +1,77 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProjectIndex
+{
+  // Maps a project's alias, qualified by Mber URL and application, to its project ID.
+  private final Map<String, String> projects = new HashMap<String, String>();
+  private transient boolean changed;
+
+  public static String key(final String url, final String applicationId, final String alias)
+  {
+    return url+"|"+applicationId+"|"+alias;
+  }
+
+  public synchronized String get(final String key)
+  {
+    return projects.get(key);
+  }
+
+  public synchronized void put(final String key, final String projectId)
+  {
+    if (!projectId.equals(projects.put(key, projectId))) {
+      changed = true;
+    }
+  }
+
+  public synchronized void remove(final String key)
+  {
+    if (projects.remove(key) != null) {
+      changed = true;
+    }
+  }
+
+  public synchronized Map<String, String> snapshot()
+  {
+    // A copy can be saved while builds keep adding projects.
+    return new HashMap<String, String>(projects);
+  }
+
+  public synchronized void restore(final Map<String, String> saved)
+  {
+    projects.putAll(saved);
+  }
+
+  public synchronized boolean takeChanged()
+  {
+    boolean wasChanged = changed;
+    changed = false;
+    return wasChanged;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+public class RequestGovernor
+{
+  // Limits apply to every governor, so changing the global configuration takes effect right away.
+  private static volatile int requestsPerSecond = 20;
+  private static volatile int maxInFlight = 16;
+
+  // Every client talking to the same host shares one governor.
+  private final static Map<String, RequestGovernor> governors = new HashMap<String, RequestGovernor>();
+
+  private double tokens;
+  private long refilledAt;
+  private int inFlight;
+  private long pausedUntil;
+
+  RequestGovernor()
+  {
+    this.tokens = Math.max(requestsPerSecond, 1);
+    this.refilledAt = System.currentTimeMillis();
+  }
+
+  public static void configure(final int requestsPerSecond, final int maxInFlight)
+  {
+    // Zero turns a limit off.
+    RequestGovernor.requestsPerSecond = Math.max(requestsPerSecond, 0);
+    RequestGovernor.maxInFlight = Math.max(maxInFlight, 0);
+    synchronized (governors) {
+      for (RequestGovernor governor : governors.values()) {
+        governor.wake();
+      }
+    }
+  }
+
+  public static RequestGovernor forUri(final URI uri)
+  {
+    String key = uri.getScheme()+"://"+uri.getAuthority();
+    synchronized (governors) {
+      RequestGovernor governor = governors.get(key);
+      if (governor == null) {
+        governor = new RequestGovernor();
+        governors.put(key, governor);
+      }
+      return governor;
+    }
+  }
+
+  public void acquire() throws InterruptedException
+  {
+    synchronized (this) {
+      while (maxInFlight > 0 && inFlight >= maxInFlight) {
+        wait();
+      }
+      ++inFlight;
+    }
+    try {
+      takeToken();
+    }
+    catch (InterruptedException e) {
+      release();
+      throw e;
+    }
+  }
+
+  public synchronized void release()
+  {
+    --inFlight;
+    notifyAll();
+  }
+
+  public synchronized void pause(final long millis)
+  {
+    // Mber asked us to back off. Hold every request to this host, not just the one that was throttled.
+    pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+  }
+
+  public synchronized int getInFlight()
+  {
+    return inFlight;
+  }
+
+  private synchronized void wake()
+  {
+    notifyAll();
+  }
+
+  private void takeToken() throws InterruptedException
+  {
+    while (true) {
+      long delay;
+      synchronized (this) {
+        long now = System.currentTimeMillis();
+        int rate = requestsPerSecond;
+        if (now < pausedUntil) {
+          delay = pausedUntil - now;
+        }
+        else if (rate <= 0) {
+          return;
+        }
+        else {
+          // The bucket holds up to one second of requests, which allows short bursts.
+          tokens = Math.min(rate, tokens + (now - refilledAt) * rate / 1000.0);
+          refilledAt = now;
+          if (tokens >= 1) {
+            tokens -= 1;
+            return;
+          }
+          delay = (long)Math.ceil((1 - tokens) * 1000.0 / rate);
+        }
+      }
+      Thread.sleep(delay);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.json.JSONObject;
+
+public class RetryPolicy
+{
+  // Builds shouldn't stall for long outages. A longer Retry-After is treated as a failure.
+  private final static long MAX_RETRY_AFTER_MILLIS = 60 * 1000;
+
+  private final int idempotentAttempts;
+  private final int postAttempts;
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+  private final AtomicInteger budget;
+  private final Random random = new Random();
+
+  public RetryPolicy()
+  {
+    this(4, 3, 500, 10 * 1000, 50);
+  }
+
+  public RetryPolicy(final int idempotentAttempts, final int postAttempts, final long baseDelayMillis, final long maxDelayMillis, final int budget)
+  {
+    this.idempotentAttempts = idempotentAttempts;
+    this.postAttempts = postAttempts;
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.budget = new AtomicInteger(budget);
+  }
+
+  public static RetryPolicy never()
+  {
+    return new RetryPolicy(1, 1, 0, 0, 0);
+  }
+
+  public boolean shouldRetry(final String method, final JSONObject data, final int code, final int attempt)
+  {
+    // A code of -1 means the request never got a response, like a connection reset.
+    if (code != -1 && !isTransient(code) && !isThrottled(code)) {
+      return false;
+    }
+    if (attempt >= getMaxAttempts(method, data)) {
+      return false;
+    }
+    // The budget caps retries for the whole client, so an outage can't multiply every call.
+    return budget.getAndDecrement() > 0;
+  }
+
+  public boolean shouldRetry(final String method, final JSONObject data, final HTTParty.Call call, final int attempt)
+  {
+    if (call.getRetryAfterMillis() > MAX_RETRY_AFTER_MILLIS) {
+      return false;
+    }
+    return shouldRetry(method, data, call.code, attempt);
+  }
+
+  public long getDelay(final int attempt, final HTTParty.Call call)
+  {
+    // Never retry sooner than Mber asked us to.
+    return Math.max(getDelay(attempt), call.getRetryAfterMillis());
+  }
+
+  public long getDelay(final int attempt)
+  {
+    // Full jitter: a random delay up to an exponentially growing cap.
+    long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+    return cap <= 0 ? 0 : (long)(random.nextDouble() * cap);
+  }
+
+  public int getMaxAttempts(final String method, final JSONObject data)
+  {
+    if (method.equals("GET") || method.equals("PUT") || method.equals("DELETE")) {
+      return idempotentAttempts;
+    }
+    // Mber treats repeated transaction IDs as the same request, which makes those POSTs safe to resend.
+    if (data != null && data.has("transactionId")) {
+      return postAttempts;
+    }
+    return 1;
+  }
+
+  public static boolean isTransient(final int code)
+  {
+    return code == 502 || code == 503 || code == 504;
+  }
+
+  public static boolean isThrottled(final int code)
+  {
+    // Throttling means Mber is up but busy, so it doesn't count against the circuit breaker.
+    return code == 429;
+  }
+
+  public static boolean isThrottled(final HTTParty.Call call)
+  {
+    // A 503 that says when to come back is Mber shedding load, not Mber being down.
+    return isThrottled(call.code) || (call.code == 503 && call.getRetryAfterMillis() >= 0);
+  }
+}
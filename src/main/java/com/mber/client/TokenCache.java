@@ -0,0 +1,105 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.json.JSONObject;
+import org.apache.commons.codec.digest.DigestUtils;
+
+public class TokenCache
+{
+  // Mber doesn't always say when a token expires, so assume a conservative lifetime.
+  private final static long DEFAULT_LIFETIME_MILLIS = 30 * 60 * 1000;
+  // Tokens are refreshed once they're this close to expiring, rather than failing mid-build.
+  private final static long REFRESH_WINDOW_MILLIS = 5 * 60 * 1000;
+
+  private static class Token
+  {
+    final String accessToken;
+    final String applicationId;
+    final String passwordHash;
+    final long expiresAt;
+
+    Token(final String accessToken, final String applicationId, final String passwordHash, final long expiresAt)
+    {
+      this.accessToken = accessToken;
+      this.applicationId = applicationId;
+      this.passwordHash = passwordHash;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final Map<String, Token> tokens = new HashMap<String, Token>();
+  // Remembers whether an application logged in by UUID or by alias, even after its token expires.
+  private final Map<String, String> clientIds = new HashMap<String, String>();
+
+  public static String key(final String url, final String application, final String username)
+  {
+    return url+"|"+application+"|"+username;
+  }
+
+  public synchronized JSONObject get(final String key, final String password)
+  {
+    Token token = tokens.get(key);
+    if (token == null) {
+      return null;
+    }
+    // A different password means different credentials, so the cached token can't be trusted.
+    if (!token.passwordHash.equals(hash(password)) || System.currentTimeMillis() + REFRESH_WINDOW_MILLIS >= token.expiresAt) {
+      tokens.remove(key);
+      return null;
+    }
+    JSONObject json = MberJSON.success();
+    json.put("access_token", token.accessToken);
+    json.put("applicationId", token.applicationId);
+    return json;
+  }
+
+  public synchronized void put(final String key, final String password, final String clientId, final JSONObject response)
+  {
+    long lifetime = DEFAULT_LIFETIME_MILLIS;
+    if (response.has("expires_in")) {
+      lifetime = response.getLong("expires_in") * 1000;
+    }
+    tokens.put(key, new Token(MberJSON.getString(response, "access_token"), MberJSON.getString(response, "applicationId"), hash(password), System.currentTimeMillis() + lifetime));
+    clientIds.put(key, clientId);
+  }
+
+  public synchronized String getClientId(final String key)
+  {
+    return clientIds.get(key);
+  }
+
+  public synchronized void invalidate(final String key)
+  {
+    tokens.remove(key);
+  }
+
+  private static String hash(final String password)
+  {
+    return DigestUtils.sha256Hex(password == null ? "" : password);
+  }
+}
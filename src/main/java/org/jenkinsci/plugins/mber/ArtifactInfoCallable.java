@@ -0,0 +1,61 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+public class ArtifactInfoCallable implements FilePath.FileCallable<JSONArray>
+{
+  private final JSONArray paths;
+  private final boolean digests;
+
+  public ArtifactInfoCallable(JSONArray paths, boolean digests)
+  {
+    this.paths = paths;
+    this.digests = digests;
+  }
+
+  @Override
+  public JSONArray invoke(File root, VirtualChannel channel) throws IOException
+  {
+    // Paths are absolute on the node, so the root is only used to pick which node to run on.
+    JSONArray infos = new JSONArray();
+    for (int i = 0; i < this.paths.size(); ++i) {
+      File file = new File(this.paths.getString(i));
+      JSONObject info = new JSONObject();
+      info.put("size", file.length());
+      if (this.digests && file.isFile()) {
+        info.put("digest", FileDigestCallable.digest(file));
+      }
+      infos.add(info);
+    }
+    return infos;
+  }
+}
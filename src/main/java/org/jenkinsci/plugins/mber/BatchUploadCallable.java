@@ -0,0 +1,112 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.mber.client.DaemonThreadFactory;
+import com.mber.client.MberJSON;
+import hudson.FilePath;
+import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+public class BatchUploadCallable implements FilePath.FileCallable<JSONObject>
+{
+  private final JSONArray manifest;
+  private final BuildListener listener;
+  private final long chunkSize;
+  private final int threads;
+  private final long compressionThreshold;
+
+  public BatchUploadCallable(JSONArray manifest, BuildListener listener, long chunkSize, int threads)
+  {
+    this(manifest, listener, chunkSize, threads, -1);
+  }
+
+  public BatchUploadCallable(JSONArray manifest, BuildListener listener, long chunkSize, int threads, long compressionThreshold)
+  {
+    this.manifest = manifest;
+    this.listener = listener;
+    this.chunkSize = chunkSize;
+    this.threads = threads;
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  @Override
+  public JSONObject invoke(File root, VirtualChannel channel) throws InterruptedException
+  {
+    // Every file in the manifest is uploaded from this node, so there's one remoting call per batch.
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(this.threads, 1), new DaemonThreadFactory("Mber batch upload"));
+    // Progress is reported for the batch as a whole, not once per file.
+    final UploadProgress progress = new UploadProgress(this.listener);
+    try {
+      List<Future<JSONObject>> uploads = new ArrayList<Future<JSONObject>>();
+      for (int i = 0; i < this.manifest.size(); ++i) {
+        JSONObject entry = this.manifest.getJSONObject(i);
+        final File file = new File(entry.getString("path"));
+        final FileUploadCallable upload = new FileUploadCallable(entry.getString("url"), this.listener, this.chunkSize, this.compressionThreshold);
+        progress.expect(file.length());
+        uploads.add(pool.submit(new Callable<JSONObject>() {
+          @Override
+          public JSONObject call()
+          {
+            // Each file's messages come back with its result, so the console reads per artifact.
+            List<String> messages = new ArrayList<String>();
+            JSONObject result = upload.upload(file, progress, messages);
+            result.put("log", JSONArray.fromObject(messages));
+            return result;
+          }
+        }));
+      }
+      progress.start();
+
+      JSONArray results = new JSONArray();
+      for (Future<JSONObject> upload : uploads) {
+        try {
+          results.add(upload.get());
+        }
+        catch (ExecutionException e) {
+          results.add(MberJSON.failed(e));
+        }
+      }
+
+      JSONObject json = MberJSON.success();
+      json.put("results", results);
+      return json;
+    }
+    finally {
+      pool.shutdownNow();
+      progress.stop();
+    }
+  }
+}
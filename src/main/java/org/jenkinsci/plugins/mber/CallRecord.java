@@ -0,0 +1,109 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.mber.client.HTTParty;
+import org.apache.commons.codec.digest.DigestUtils;
+
+public class CallRecord
+{
+  // Enough of a hash to tell responses apart, without keeping the response itself.
+  private final static int BODY_HASH_LENGTH = 16;
+
+  private final String method;
+  private final String uri;
+  private final int code;
+  private final long latencyMillis;
+  private final int attempts;
+  private final String bodyHash;
+
+  public CallRecord(final String method, final String uri, final int code, final long latencyMillis, final int attempts, final String bodyHash)
+  {
+    this.method = method;
+    this.uri = uri;
+    this.code = code;
+    this.latencyMillis = latencyMillis;
+    this.attempts = attempts;
+    this.bodyHash = bodyHash;
+  }
+
+  public static CallRecord from(final HTTParty.Call call)
+  {
+    // Don't keep query strings as part of the URI. They can contain sensitive data like tokens.
+    String uri = call.uri == null ? "" : call.uri.toString();
+    int offset = uri.indexOf('?');
+    if (offset >= 0) {
+      uri = uri.substring(0, offset);
+    }
+    String bodyHash = "";
+    if (call.body != null && !call.body.isEmpty()) {
+      bodyHash = DigestUtils.sha256Hex(call.body).substring(0, BODY_HASH_LENGTH);
+    }
+    return new CallRecord(call.method, uri, call.code, call.latencyMillis, call.attempts, bodyHash);
+  }
+
+  public String getMethod()
+  {
+    return method;
+  }
+
+  public String getUri()
+  {
+    return uri;
+  }
+
+  public int getCode()
+  {
+    return code;
+  }
+
+  public long getLatencyMillis()
+  {
+    return latencyMillis;
+  }
+
+  public int getAttempts()
+  {
+    return attempts;
+  }
+
+  public String getBodyHash()
+  {
+    return bodyHash;
+  }
+
+  @Override
+  public String toString()
+  {
+    String text = method+" "+uri+" - "+code+" in "+latencyMillis+" ms";
+    if (attempts > 1) {
+      text += " after "+attempts+" attempts";
+    }
+    if (!bodyHash.isEmpty()) {
+      text += " (body "+bodyHash+")";
+    }
+    return text;
+  }
+}
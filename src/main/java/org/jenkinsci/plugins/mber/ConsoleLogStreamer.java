@@ -0,0 +1,206 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.mber.client.DaemonThreadFactory;
+import com.mber.client.MberClient;
+import com.mber.client.MberJSON;
+import hudson.model.AbstractBuild;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+public class ConsoleLogStreamer
+{
+  private final static long POLL_MILLIS = 5 * 1000;
+  // Segments end on a line break when one is this close to the end, so lines aren't split across segments.
+  private final static int LINE_SEARCH_BYTES = 64 * 1024;
+  private final static ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, new DaemonThreadFactory("Mber console log streamer"));
+
+  private final AbstractBuild build;
+  private final File logFile;
+  private final MberClient mber;
+  private final String directoryId;
+  private final String[] tags;
+  private final long segmentBytes;
+  private final long intervalMillis;
+  private final JSONArray segments = new JSONArray();
+  private ScheduledFuture<?> task;
+  private long offset;
+  private long shippedAt;
+  private String lastError = "";
+
+  public ConsoleLogStreamer(final AbstractBuild build, final MberClient mber, final String directoryId, final String[] tags, final long segmentBytes, final long intervalMillis)
+  {
+    this(build, build.getLogFile(), mber, directoryId, tags, segmentBytes, intervalMillis);
+  }
+
+  ConsoleLogStreamer(final AbstractBuild build, final File logFile, final MberClient mber, final String directoryId, final String[] tags, final long segmentBytes, final long intervalMillis)
+  {
+    this.build = build;
+    this.logFile = logFile;
+    this.mber = mber;
+    this.directoryId = directoryId;
+    this.tags = tags;
+    this.segmentBytes = Math.max(segmentBytes, 1);
+    this.intervalMillis = intervalMillis;
+    this.shippedAt = System.currentTimeMillis();
+  }
+
+  public synchronized void start()
+  {
+    task = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run()
+      {
+        poll();
+      }
+    }, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop()
+  {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  public synchronized JSONObject finish()
+  {
+    // Sends whatever the running build hasn't shipped yet, then a manifest that lists the segments in order.
+    stop();
+    while (offset < logFile.length()) {
+      if (!ship(Math.min(logFile.length(), offset + segmentBytes), true)) {
+        return MberJSON.failed(lastError);
+      }
+    }
+    JSONObject manifest = new JSONObject();
+    manifest.put("name", "console.log");
+    manifest.put("size", offset);
+    manifest.put("segments", segments);
+    JSONObject response = mber.upload(manifest, directoryId, "console.log.manifest", tags);
+    recordCalls();
+    return response;
+  }
+
+  synchronized boolean flush()
+  {
+    // Full segments go right away. A partial one waits for the interval, so quiet builds don't send tiny segments.
+    while (logFile.length() - offset >= segmentBytes) {
+      if (!ship(offset + segmentBytes, false)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized void poll()
+  {
+    if (task == null) {
+      return;
+    }
+    if (!flush()) {
+      return;
+    }
+    long pending = logFile.length() - offset;
+    if (pending > 0 && System.currentTimeMillis() - shippedAt >= intervalMillis) {
+      ship(logFile.length(), false);
+    }
+    if (!build.isLogUpdated()) {
+      // The build is done writing. Whatever's left is sent by finish().
+      stop();
+    }
+  }
+
+  private boolean ship(final long end, final boolean last)
+  {
+    long length = last ? end - offset : findLineEnd(end) - offset;
+    if (length <= 0) {
+      return true;
+    }
+    String name = String.format("console.log.%03d", segments.size());
+    // Overwriting means a segment that failed partway through is replaced when it's retried.
+    JSONObject response = mber.upload(logFile, offset, length, directoryId, name, tags, true);
+    recordCalls();
+    if (!response.getString("status").equals("Success")) {
+      // Unsent output stays pending and goes with the next attempt.
+      lastError = MberJSON.getString(response, "error");
+      return false;
+    }
+    JSONObject segment = new JSONObject();
+    segment.put("name", name);
+    segment.put("offset", offset);
+    segment.put("size", length);
+    segments.add(segment);
+    offset += length;
+    shippedAt = System.currentTimeMillis();
+    return true;
+  }
+
+  private void recordCalls()
+  {
+    // The streamer's client lives as long as the build, so its calls are kept with the build as they're made.
+    if (build != null) {
+      MberBuildAction.of(build).recordCalls(mber.takeCallHistory());
+    }
+  }
+
+  private long findLineEnd(final long end)
+  {
+    long start = Math.max(offset, end - LINE_SEARCH_BYTES);
+    byte[] buffer = new byte[(int)(end - start)];
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(logFile, "r");
+      file.seek(start);
+      file.readFully(buffer);
+      for (int i = buffer.length - 1; i >= 0; --i) {
+        if (buffer[i] == '\n') {
+          return start + i + 1;
+        }
+      }
+    }
+    catch (IOException e) {
+      // Splitting a line is harmless, since the manifest stitches the segments back together.
+    }
+    finally {
+      if (file != null) {
+        try {
+          file.close();
+        }
+        catch (IOException e) {
+        }
+      }
+    }
+    return end;
+  }
+}
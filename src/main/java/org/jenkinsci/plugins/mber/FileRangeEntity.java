@@ -0,0 +1,136 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import org.apache.http.entity.AbstractHttpEntity;
+
+public class FileRangeEntity extends AbstractHttpEntity
+{
+  private final File file;
+  private final long offset;
+  private final long length;
+  private final UploadProgress progress;
+
+  public FileRangeEntity(File file, long offset, long length)
+  {
+    this(file, offset, length, null);
+  }
+
+  public FileRangeEntity(File file, long offset, long length, UploadProgress progress)
+  {
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+    this.progress = progress;
+  }
+
+  @Override
+  public boolean isRepeatable()
+  {
+    return true;
+  }
+
+  @Override
+  public long getContentLength()
+  {
+    return this.length;
+  }
+
+  @Override
+  public InputStream getContent() throws IOException
+  {
+    RandomAccessFile input = new RandomAccessFile(this.file, "r");
+    input.seek(this.offset);
+    return new RangeInputStream(input, this.length);
+  }
+
+  @Override
+  public void writeTo(OutputStream outstream) throws IOException
+  {
+    if (this.progress == null) {
+      FileStreamer.copy(this.file, this.offset, this.length, outstream);
+      return;
+    }
+    // Counts the range as it's written. It isn't closed, since that would report the whole file as done.
+    LoggingOutputStream output = new LoggingOutputStream(outstream, this.progress, this.length, this.file.getName());
+    FileStreamer.copy(this.file, this.offset, this.length, output);
+    output.flush();
+  }
+
+  @Override
+  public boolean isStreaming()
+  {
+    return false;
+  }
+
+  private static class RangeInputStream extends InputStream
+  {
+    private final RandomAccessFile input;
+    private long remaining;
+
+    RangeInputStream(RandomAccessFile input, long length)
+    {
+      this.input = input;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = input.read();
+      if (b >= 0) {
+        --remaining;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int read = input.read(b, off, (int)Math.min(len, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      input.close();
+    }
+  }
+}
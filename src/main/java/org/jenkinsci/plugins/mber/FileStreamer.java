@@ -0,0 +1,87 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class FileStreamer
+{
+  // Large reads mean fewer system calls, and writes this size bypass HttpClient's 8 KB session buffer.
+  public final static int BUFFER_SIZE = 256 * 1024;
+
+  // Each thread keeps one buffer, so uploading or hashing a batch of files doesn't allocate one per file.
+  private final static ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue()
+    {
+      return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+  };
+
+  static ByteBuffer getBuffer()
+  {
+    ByteBuffer buffer = buffers.get();
+    buffer.clear();
+    return buffer;
+  }
+
+  public static void copy(final File file, final long offset, final long length, final OutputStream output) throws IOException
+  {
+    FileInputStream input = new FileInputStream(file);
+    try {
+      copy(input.getChannel(), offset, length, output);
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  public static void copy(final FileChannel channel, long offset, final long length, final OutputStream output) throws IOException
+  {
+    // HttpClient only hands entities an OutputStream, so FileChannel.transferTo can't reach the socket.
+    // Reading with positional channel reads into this thread's reused array is the next best thing.
+    ByteBuffer buffer = getBuffer();
+    long remaining = length;
+    while (remaining > 0) {
+      buffer.clear();
+      if (remaining < buffer.capacity()) {
+        buffer.limit((int)remaining);
+      }
+      int read = channel.read(buffer, offset);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file after "+(length - remaining)+" of "+length+" bytes");
+      }
+      output.write(buffer.array(), 0, read);
+      offset += read;
+      remaining -= read;
+    }
+    output.flush();
+  }
+}
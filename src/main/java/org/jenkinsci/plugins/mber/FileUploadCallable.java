@@ -26,44 +26,201 @@ THE SOFTWARE.
 package org.jenkinsci.plugins.mber;
 import com.mber.client.HTTParty;
 import com.mber.client.MberJSON;
+import com.mber.client.RetryPolicy;
 import hudson.FilePath;
 import hudson.model.BuildListener;
 import hudson.remoting.VirtualChannel;
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import net.sf.json.JSONObject;
 
 public class FileUploadCallable implements FilePath.FileCallable<JSONObject>
 {
+  // How many times a single chunk is retried before the upload gives up.
+  private final static int MAX_CHUNK_RETRIES = 5;
+  private final static long CHUNK_RETRY_PAUSE_MILLIS = 1000;
+
   private final String url;
   private final BuildListener listener;
+  private final long chunkSize;
+  private final long compressionThreshold;
 
   public FileUploadCallable(String url)
   {
-    this.url = url;
-    this.listener = null;
+    this(url, null);
   }
 
   public FileUploadCallable(String url, BuildListener listener)
+  {
+    this(url, listener, 0);
+  }
+
+  public FileUploadCallable(String url, BuildListener listener, long chunkSize)
+  {
+    this(url, listener, chunkSize, -1);
+  }
+
+  public FileUploadCallable(String url, BuildListener listener, long chunkSize, long compressionThreshold)
   {
     this.url = url;
     this.listener = listener;
+    this.chunkSize = chunkSize;
+    this.compressionThreshold = compressionThreshold;
   }
 
   @Override
   public JSONObject invoke(File file, VirtualChannel channel)
   {
+    UploadProgress progress = new UploadProgress(this.listener);
     try {
-      String response = HTTParty.put(this.url, file, this.listener).body;
-      if (response != null && !response.isEmpty()) {
-        return MberJSON.failed(response);
+      if (file != null) {
+        progress.expect(file.length());
       }
-      JSONObject json = MberJSON.success();
-      json.put("url", this.url);
-      json.put("path", file.getAbsolutePath());
-      return json;
+      progress.start();
+      return upload(file, progress);
+    }
+    finally {
+      progress.stop();
+    }
+  }
+
+  JSONObject upload(File file, UploadProgress progress)
+  {
+    return upload(file, progress, null);
+  }
+
+  JSONObject upload(File file, UploadProgress progress, List<String> messages)
+  {
+    // This file's bytes count toward the whole upload, but can be wound back when a chunk is resent.
+    // Its messages go to the given list when it's one of many files uploading at once.
+    UploadProgress fileProgress = new UploadProgress(progress, messages);
+    try {
+      if (this.chunkSize > 0 && file.isFile() && file.length() > this.chunkSize) {
+        return uploadChunks(file, fileProgress);
+      }
+      // Chunks are ranges of the file as stored, so only whole-file uploads are compressed.
+      return uploadWhole(file, fileProgress, HTTParty.isCompressible(file, this.compressionThreshold));
     }
     catch (Exception e) {
       return MberJSON.failed(e);
     }
   }
+
+  private JSONObject uploadWhole(final File file, final UploadProgress progress, final boolean compress) throws IOException
+  {
+    String response = HTTParty.put(this.url, file, progress, compress).body;
+    if (response != null && !response.isEmpty()) {
+      return MberJSON.failed(response);
+    }
+    return success(file);
+  }
+
+  private JSONObject uploadChunks(final File file, final UploadProgress progress) throws IOException, InterruptedException
+  {
+    long total = file.length();
+    long offset = 0;
+    int failures = 0;
+    // Only servers that have answered a range with a 308 are known to keep partial uploads.
+    boolean resumable = false;
+    while (offset < total) {
+      long length = Math.min(this.chunkSize, total - offset);
+      try {
+        HTTParty.Call call = HTTParty.put(this.url, file, offset, length, progress);
+        if (call.code == 308) {
+          resumable = true;
+          // A 308 without a Range header means the server hasn't stored anything yet.
+          long acknowledged = getAcknowledgedOffset(call, 0);
+          if (acknowledged <= offset) {
+            // Nothing from this chunk was kept. It counts as a failed attempt,
+            // so a server that never keeps anything can't stall the upload forever.
+            offset = acknowledged;
+            throw new IOException("Upload of "+file.getName()+" wasn't stored past byte "+acknowledged);
+          }
+          offset = acknowledged;
+        }
+        else if (call.code >= 200 && call.code < 300) {
+          if (offset + length < total) {
+            // The server took one range as the whole document, like a plain presigned PUT does.
+            // Carrying on would leave it holding only the last chunk, so send the whole file instead.
+            progress.log(file.getName()+" can't be uploaded in chunks. Uploading the whole file.");
+            progress.rewindTo(0);
+            return uploadWhole(file, progress, false);
+          }
+          offset = total;
+        }
+        else if (!isRetryable(call.code)) {
+          return MberJSON.failed("Upload of "+file.getName()+" failed with HTTP "+call.code+" "+call.body);
+        }
+        else {
+          throw new IOException("Upload of "+file.getName()+" failed with HTTP "+call.code+" "+call.body);
+        }
+        // Bytes the server didn't keep will be sent again, so they don't count yet.
+        progress.rewindTo(offset);
+        failures = 0;
+        progress.log("Uploaded "+Math.round(offset * 100.0 / total)+"% of "+file.getName());
+      }
+      catch (IOException e) {
+        if (++failures > MAX_CHUNK_RETRIES) {
+          return MberJSON.failed(e);
+        }
+        Thread.sleep(CHUNK_RETRY_PAUSE_MILLIS * failures);
+        // Resume from whatever the server actually received, not from what we sent.
+        if (resumable) {
+          offset = queryAcknowledgedOffset(total, offset);
+        }
+        progress.rewindTo(offset);
+      }
+    }
+    return success(file);
+  }
+
+  private static boolean isRetryable(final int code)
+  {
+    // Client errors won't go away by sending the same chunk again, except for timeouts and throttling.
+    if (code >= 400 && code < 500) {
+      return code == 408 || RetryPolicy.isThrottled(code);
+    }
+    return true;
+  }
+
+  private long queryAcknowledgedOffset(final long total, final long fallback)
+  {
+    try {
+      HTTParty.Call call = HTTParty.status(this.url, total);
+      if (call.code == 308) {
+        return getAcknowledgedOffset(call, 0);
+      }
+      if (call.code >= 200 && call.code < 300) {
+        return total;
+      }
+    }
+    catch (IOException e) {
+      // Fall through and resend from the last offset we know was acknowledged.
+    }
+    return fallback;
+  }
+
+  private static long getAcknowledgedOffset(final HTTParty.Call call, final long fallback)
+  {
+    // The Range header reads "bytes=0-N", where N is the last byte the server has.
+    String range = call.getHeader("Range");
+    if (range == null || range.lastIndexOf('-') < 0) {
+      return fallback;
+    }
+    try {
+      return Long.parseLong(range.substring(range.lastIndexOf('-') + 1).trim()) + 1;
+    }
+    catch (NumberFormatException e) {
+      return fallback;
+    }
+  }
+
+  private JSONObject success(final File file)
+  {
+    JSONObject json = MberJSON.success();
+    json.put("url", this.url);
+    json.put("path", file.getAbsolutePath());
+    return json;
+  }
 }
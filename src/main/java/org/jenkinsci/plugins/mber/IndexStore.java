@@ -0,0 +1,102 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.mber.client.DaemonThreadFactory;
+import hudson.XmlFile;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class IndexStore
+{
+  private final static Logger LOGGER = Logger.getLogger(IndexStore.class.getName());
+
+  // One thread writes every index file, so saving never holds up a build.
+  private final static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Mber index store"));
+
+  // Indexes live in their own files, so busy builds don't rewrite the plugin's global configuration.
+  private final XmlFile file;
+  private final long delayMillis;
+  private ScheduledFuture<?> pending;
+
+  public IndexStore(final File file, final long delayMillis)
+  {
+    this.file = new XmlFile(file);
+    this.delayMillis = delayMillis;
+  }
+
+  @SuppressWarnings("unchecked")
+  public Map<String, String> load()
+  {
+    if (!this.file.exists()) {
+      return new LinkedHashMap<String, String>();
+    }
+    try {
+      return (Map<String, String>)this.file.read();
+    }
+    catch (Exception e) {
+      // A lost index only costs lookups the next build makes again.
+      LOGGER.log(Level.WARNING, "Failed to load "+this.file, e);
+      return new LinkedHashMap<String, String>();
+    }
+  }
+
+  public synchronized void saveLater(final Callable<Map<String, String>> snapshot)
+  {
+    // Saves are debounced, so a burst of builds writes the file once.
+    if (this.pending != null) {
+      return;
+    }
+    this.pending = scheduler.schedule(new Runnable() {
+      @Override
+      public void run()
+      {
+        // Changes made from here on schedule another save.
+        synchronized (IndexStore.this) {
+          pending = null;
+        }
+        save(snapshot);
+      }
+    }, this.delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void save(final Callable<Map<String, String>> snapshot)
+  {
+    try {
+      this.file.write(snapshot.call());
+    }
+    catch (Exception e) {
+      LOGGER.log(Level.WARNING, "Failed to save "+this.file, e);
+    }
+  }
+}
@@ -32,23 +32,44 @@ import org.apache.http.entity.FileEntity;
 
 public class LoggingFileEntity extends FileEntity
 {
-  private final BuildListener listener;
+  private final UploadProgress progress;
+  private final boolean ownsProgress;
+  private long attemptBytes;
 
   public LoggingFileEntity(File file, BuildListener listener)
   {
     super(file);
-    this.listener = listener;
+    this.progress = new UploadProgress(listener);
+    this.ownsProgress = true;
+  }
+
+  public LoggingFileEntity(File file, UploadProgress progress)
+  {
+    super(file);
+    this.progress = progress;
+    this.ownsProgress = false;
   }
 
   @Override
   public void writeTo(OutputStream outstream) throws IOException
   {
-    LoggingOutputStream output = new LoggingOutputStream(outstream, this.listener, getContentLength(), file.getName());
+    // Shared progress is started and stopped by whoever owns the whole batch of uploads.
+    if (this.ownsProgress) {
+      this.progress.expect(getContentLength());
+      this.progress.start();
+    }
+    // A body that's sent again, like after the server rejects it compressed, isn't counted twice.
+    this.progress.written(-this.attemptBytes);
+    LoggingOutputStream output = new LoggingOutputStream(outstream, this.progress, getContentLength(), file.getName());
     try {
-      super.writeTo(output);
+      FileStreamer.copy(this.file, 0, this.file.length(), output);
     }
     finally {
+      this.attemptBytes = output.getBytesWritten();
       output.close();
+      if (this.ownsProgress) {
+        this.progress.stop();
+      }
     }
   }
 }
@@ -24,40 +24,37 @@ THE SOFTWARE.
 */
 
 package org.jenkinsci.plugins.mber;
-import hudson.model.BuildListener;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Timer;
-import java.util.TimerTask;
 
 public class LoggingOutputStream extends OutputStream
 {
   private final OutputStream output;
-  private final BuildListener listener;
-  private final Timer timer = new Timer();
+  private final UploadProgress progress;
   private final long expectedBytes;
   private final String inputName;
   private long bytesWritten;
 
-  public LoggingOutputStream(OutputStream output, BuildListener listener, long expectedBytes, String inputName)
+  public LoggingOutputStream(OutputStream output, UploadProgress progress, long expectedBytes, String inputName)
   {
     this.output = output;
-    this.listener = listener;
+    this.progress = progress;
     this.expectedBytes = expectedBytes;
     this.inputName = inputName;
     this.bytesWritten = 0;
-    initTimer();
+  }
+
+  public long getBytesWritten()
+  {
+    return this.bytesWritten;
   }
 
   @Override
   public void close() throws IOException
   {
-    this.timer.cancel();
     this.output.close();
-    if (this.listener != null) {
-      int percent = Math.round(this.bytesWritten * 100 / this.expectedBytes);
-      this.listener.getLogger().println("Uploaded "+percent+"% of "+this.inputName);
-    }
+    int percent = this.expectedBytes > 0 ? Math.round(this.bytesWritten * 100 / this.expectedBytes) : 100;
+    this.progress.log("Uploaded "+percent+"% of "+this.inputName);
   }
 
   @Override
@@ -90,20 +87,6 @@ public class LoggingOutputStream extends OutputStream
   private void log(int length)
   {
     this.bytesWritten += length;
-  }
-
-  private void initTimer()
-  {
-    long timeout = 1 * 60 * 1000;
-    this.timer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run()
-      {
-        if (listener != null) {
-          int percent = Math.round(bytesWritten * 100 / expectedBytes);
-          listener.getLogger().println("Uploaded "+percent+"% of "+inputName);
-        }
-      }
-    }, timeout, timeout);
+    this.progress.written(length);
   }
 }
@@ -0,0 +1,124 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import hudson.model.AbstractBuild;
+import hudson.model.InvisibleAction;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import net.sf.json.JSONObject;
+
+public class MberBuildAction extends InvisibleAction
+{
+  // Only the most recent calls are kept. Older ones are counted, but dropped.
+  private final static int MAX_CALL_HISTORY = 200;
+
+  // Client state is per build, so concurrent builds of one job never see each other's build IDs or tokens.
+  // The client state is only needed while the build runs, and holds an access token, so it isn't saved.
+  private transient JSONObject mberConfig;
+  private transient boolean skipped;
+  private transient ConsoleLogStreamer logStreamer;
+  // The call history is saved with the build, so it's there to debug a failure after a restart.
+  private LinkedList<CallRecord> callHistory;
+  private int droppedCalls;
+
+  public static MberBuildAction of(final AbstractBuild build)
+  {
+    synchronized (build) {
+      MberBuildAction action = build.getAction(MberBuildAction.class);
+      if (action == null) {
+        action = new MberBuildAction();
+        build.addAction(action);
+      }
+      return action;
+    }
+  }
+
+  public synchronized JSONObject getMberConfig()
+  {
+    return mberConfig;
+  }
+
+  public synchronized void setMberConfig(final JSONObject config)
+  {
+    this.mberConfig = config;
+  }
+
+  public synchronized boolean isSkipped()
+  {
+    return skipped;
+  }
+
+  public synchronized void setSkipped(final boolean skipped)
+  {
+    this.skipped = skipped;
+  }
+
+  public synchronized void setLogStreamer(final ConsoleLogStreamer streamer)
+  {
+    this.logStreamer = streamer;
+  }
+
+  public synchronized ConsoleLogStreamer takeLogStreamer()
+  {
+    ConsoleLogStreamer streamer = this.logStreamer;
+    this.logStreamer = null;
+    return streamer;
+  }
+
+  public synchronized void recordCalls(final List<CallRecord> calls)
+  {
+    if (this.callHistory == null) {
+      this.callHistory = new LinkedList<CallRecord>();
+    }
+    for (CallRecord call : calls) {
+      this.callHistory.addLast(call);
+      if (this.callHistory.size() > MAX_CALL_HISTORY) {
+        this.callHistory.removeFirst();
+        ++this.droppedCalls;
+      }
+    }
+  }
+
+  public synchronized List<CallRecord> getCallHistory()
+  {
+    if (this.callHistory == null) {
+      return new ArrayList<CallRecord>();
+    }
+    return new ArrayList<CallRecord>(this.callHistory);
+  }
+
+  public synchronized int getDroppedCalls()
+  {
+    return droppedCalls;
+  }
+
+  public synchronized void clearCallHistory()
+  {
+    this.callHistory = null;
+    this.droppedCalls = 0;
+  }
+}
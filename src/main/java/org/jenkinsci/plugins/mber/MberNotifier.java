@@ -24,10 +24,19 @@ THE SOFTWARE.
 */
 
 package org.jenkinsci.plugins.mber;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mber.client.AsyncMberClient;
 import com.mber.client.MberClient;
 import com.mber.client.BuildStatus;
+import com.mber.client.CircuitBreaker;
+import com.mber.client.Deadline;
+import com.mber.client.DigestIndex;
 import com.mber.client.HTTParty;
 import com.mber.client.MberJSON;
+import com.mber.client.ProjectIndex;
+import com.mber.client.RequestGovernor;
+import com.mber.client.TokenCache;
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
@@ -43,16 +52,21 @@ import hudson.tasks.test.AbstractTestResultAction;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
 import java.io.File;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
-import net.sf.json.JSONSerializer;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.QueryParameter;
@@ -65,17 +79,32 @@ public class MberNotifier extends Notifier
   private final String buildName;
   private final String buildDescription;
   private final boolean uploadConsoleLog;
+  private final boolean streamConsoleLog;
   private final boolean uploadTestResults;
   private final boolean uploadArtifacts;
   private final boolean overwriteExistingFiles;
+  // Variables that are different for every build.
+  private final static String[] PER_BUILD_VARIABLES = { "BUILD_NUMBER", "BUILD_ID", "BUILD_TAG", "BUILD_URL", "BUILD_DISPLAY_NAME" };
+  // The final status still goes out after the step times out, but it gets only this long.
+  private final static long FINAL_STATUS_MILLIS = 60 * 1000;
+
   private String buildArtifacts;
   private String artifactFolder;
   private String artifactTags;
-  private JSONObject mberConfig;
-  private Map<String, List<HTTParty.Call>> callHistory;
+  private int uploadThreads;
+  // Per-build state now lives in each build's MberBuildAction. These are only kept so old job configs still load.
+  @Deprecated
+  private transient JSONObject mberConfig;
+  @Deprecated
+  private transient Map<String, List<HTTParty.Call>> callHistory;
 
-  @DataBoundConstructor
   public MberNotifier(String application, String username, String password, String buildName, String buildDescription, boolean uploadTestResults, boolean uploadConsoleLog, UploadArtifactsBlock uploadArtifacts)
+  {
+    this(application, username, password, buildName, buildDescription, uploadTestResults, uploadConsoleLog, false, uploadArtifacts);
+  }
+
+  @DataBoundConstructor
+  public MberNotifier(String application, String username, String password, String buildName, String buildDescription, boolean uploadTestResults, boolean uploadConsoleLog, boolean streamConsoleLog, UploadArtifactsBlock uploadArtifacts)
   {
     this.application = application;
     this.username = username;
@@ -83,6 +112,7 @@ public class MberNotifier extends Notifier
     this.buildName = buildName;
     this.buildDescription = buildDescription;
     this.uploadConsoleLog = uploadConsoleLog;
+    this.streamConsoleLog = uploadConsoleLog && streamConsoleLog;
     this.uploadTestResults = uploadTestResults;
     this.uploadArtifacts = (uploadArtifacts != null);
     if (uploadArtifacts != null) {
@@ -90,6 +120,7 @@ public class MberNotifier extends Notifier
       this.artifactFolder = uploadArtifacts.getArtifactFolder();
       this.artifactTags = uploadArtifacts.getArtifactTags();
       this.overwriteExistingFiles = uploadArtifacts.isOverwriteExistingFiles();
+      this.uploadThreads = uploadArtifacts.getUploadThreads();
     } else {
       this.overwriteExistingFiles = false;
     }
@@ -120,10 +151,10 @@ public class MberNotifier extends Notifier
     return buildName;
   }
 
-  private String getMberBuildName(final AbstractBuild build, final BuildListener listener)
+  private String getMberBuildName(final AbstractBuild build, final EnvVars env)
   {
     if (buildName != null && !buildName.isEmpty()) {
-      return this.resolveEnvironmentVariables(build, listener, buildName);
+      return this.resolveEnvironmentVariables(env, buildName);
     }
     return build.getDisplayName();
   }
@@ -133,10 +164,10 @@ public class MberNotifier extends Notifier
     return buildDescription;
   }
 
-  private String getMberBuildDescription(final AbstractBuild build, final BuildListener listener)
+  private String getMberBuildDescription(final AbstractBuild build, final EnvVars env)
   {
     if (buildDescription != null && !buildDescription.isEmpty()) {
-      return this.resolveEnvironmentVariables(build, listener, buildDescription);
+      return this.resolveEnvironmentVariables(env, buildDescription);
     }
     return build.getDescription();
   }
@@ -146,6 +177,11 @@ public class MberNotifier extends Notifier
     return uploadConsoleLog;
   }
 
+  public boolean isStreamConsoleLog()
+  {
+    return streamConsoleLog;
+  }
+
   public boolean isUploadTestResults()
   {
     return uploadTestResults;
@@ -182,64 +218,88 @@ public class MberNotifier extends Notifier
     return artifactTags;
   }
 
-  private void recordCallHistory(final AbstractBuild build, final MberClient mber) {
-    if (this.callHistory == null) {
-      this.callHistory = new HashMap();
+  public int getUploadThreads()
+  {
+    if (uploadThreads <= 0) {
+      return getDescriptor().getDefaultUploadThreads();
     }
-    String buildId = getCallHistoryId(build);
-    List<HTTParty.Call> calls = getCallHistory(build);
-    calls.addAll(mber.getCallHistory());
-    this.callHistory.put(buildId, calls);
+    return uploadThreads;
   }
 
-  List<HTTParty.Call> getCallHistory(final AbstractBuild build) {
-    String buildId = getCallHistoryId(build);
-    if (this.callHistory != null && this.callHistory.containsKey(buildId)) {
-      return this.callHistory.get(buildId);
-    }
-    return new ArrayList();
+  private void recordCallHistory(final AbstractBuild build, final MberClient mber) {
+    MberBuildAction.of(build).recordCalls(mber.getCallHistory());
   }
 
-  private void clearCallHistory(final AbstractBuild build) {
-    if (this.callHistory != null) {
-      String buildId = getCallHistoryId(build);
-      this.callHistory.remove(buildId);
-    }
+  List<CallRecord> getCallHistory(final AbstractBuild build) {
+    return MberBuildAction.of(build).getCallHistory();
   }
 
-  private String getCallHistoryId(final AbstractBuild build) {
-    // Use the URL to the build as a unique ID, since it's guaranteed to be unique,
-    // unlike the getId() function which just returns the time the build started.
-    return build.getUrl();
+  private void clearCallHistory(final AbstractBuild build) {
+    MberBuildAction.of(build).clearCallHistory();
   }
 
-  private String[] getUploadTags(final AbstractBuild build, final BuildListener listener, final FilePath file)
+  private String[] getUploadTags(final EnvVars env, final String name)
   {
-    return getUploadTags(build, listener, file.getName());
+    return getUploadTags(compileArtifactTags(env), new Template.Variables(name, -1), new HashMap<List<String>, String[]>());
   }
 
-  private String[] getUploadTags(final AbstractBuild build, final BuildListener listener, final String name)
+  private String[] getUploadTags(final Template[] tagTemplates, final Template.Variables variables, final Map<List<String>, String[]> sharedTags)
   {
-    ArrayList<String> tags = new ArrayList<String>();
-    tags.add(name);
+    List<String> tags = new ArrayList<String>(tagTemplates.length + 1);
+    tags.add(variables.getName());
+    for (Template template : tagTemplates) {
+      String tag = template.render(variables);
+      if (!tag.isEmpty()) {
+        tags.add(tag);
+      }
+    }
+    // Artifacts that end up with the same tags share one array.
+    String[] shared = sharedTags.get(tags);
+    if (shared == null) {
+      shared = tags.toArray(new String[tags.size()]);
+      sharedTags.put(tags, shared);
+    }
+    return shared;
+  }
 
-    String[] userTags = getArtifactTags().split("\\s+");
-    for (String tag : userTags) {
-      String resolvedTag = this.resolveEnvironmentVariables(build, listener, tag);
-      if (resolvedTag != null && !resolvedTag.isEmpty()) {
-        tags.add(resolvedTag);
+  private Template[] compileArtifactTags(final EnvVars env)
+  {
+    // Tags are parsed and bound to the environment once per step. Only per-artifact variables are left to render.
+    List<Template> templates = new ArrayList<Template>();
+    if (env != null) {
+      for (String tag : getArtifactTags().split("\\s+")) {
+        if (!tag.isEmpty()) {
+          templates.add(Template.compile(tag).bind(env));
+        }
       }
     }
+    return templates.toArray(new Template[templates.size()]);
+  }
 
-    return tags.toArray(new String[tags.size()]);
+  private Template compileArtifactFolder(final EnvVars env)
+  {
+    if (env == null) {
+      return null;
+    }
+    return Template.compile(getArtifactFolder()).bind(env);
   }
 
-  public void uploadLogFile(AbstractBuild build, BuildListener listener, final MberClient mber)
+  public void uploadLogFile(AbstractBuild build, BuildListener listener, final MberClient mber, final EnvVars env)
   {
     if (!isUploadConsoleLog()) {
       return;
     }
 
+    ConsoleLogStreamer streamer = MberBuildAction.of(build).takeLogStreamer();
+    if (streamer != null) {
+      log(listener, "Uploading the rest of the console output to Mber");
+      JSONObject response = streamer.finish();
+      if (!response.getString("status").equals("Success")) {
+        log(listener, response.getString("error"));
+      }
+      return;
+    }
+
     File logFile = build.getLogFile();
     if (logFile == null || !logFile.exists() || logFile.length() <= 0) {
       return;
@@ -247,14 +307,14 @@ public class MberNotifier extends Notifier
 
     log(listener, "Uploading console output to Mber");
 
-    JSONObject response = makeArtifactFolder(build, listener, mber, false);
+    JSONObject response = makeArtifactFolder(listener, mber, env, false);
     if (!response.getString("status").equals("Success")) {
       log(listener, response.getString("error"));
       return;
     }
 
     String uploadDirectoryId = response.getString("directoryId");
-    String[] tags = getUploadTags(build, listener, "console.log");
+    String[] tags = getUploadTags(env, "console.log");
 
     response = mber.upload(new FilePath(logFile), uploadDirectoryId, "console.log", tags, false);
     if (response.getString("status").equals("Duplicate")) {
@@ -268,28 +328,28 @@ public class MberNotifier extends Notifier
 
   private void writeCallHistory(final AbstractBuild build, final BuildListener listener, final MberClient mber)
   {
+    // A token refreshed during this step is kept with the build, so later clients don't start with the expired one.
+    MberBuildAction action = MberBuildAction.of(build);
+    if (action.getMberConfig() != null) {
+      action.setMberConfig(mber.toJSON());
+    }
+    // Aggregate the call history for both prebuild and perform. It's kept with the build.
+    recordCallHistory(build, mber);
     // Only write debug information if the build failed.
     if (build.getResult().equals(Result.FAILURE)) {
-      // Aggregate the call history for both prebuild and perform.
-      recordCallHistory(build, mber);
       log(listener, "The following calls were made to Mber:");
-      for (HTTParty.Call call : getCallHistory(build)) {
-        // Don't show query strings as part of the URI. They can contain sensitive data like tokens.
-        String url = call.uri.toString();
-        int offset = url.indexOf('?');
-        if (offset >= 0) {
-          url = url.substring(0, offset);
-        }
-        log(listener, call.method+" "+url+" - "+call.code);
+      if (action.getDroppedCalls() > 0) {
+        log(listener, action.getDroppedCalls()+" earlier calls weren't kept");
+      }
+      for (CallRecord call : action.getCallHistory()) {
+        log(listener, call.toString());
       }
     }
-    // Clear the call history for this build so memory usage doesn't keep growing.
-    clearCallHistory(build);
   }
 
-  private JSONObject makeArtifactFolder(AbstractBuild build, BuildListener listener, final MberClient mber, boolean logging)
+  private JSONObject makeArtifactFolder(BuildListener listener, final MberClient mber, final EnvVars env, boolean logging)
   {
-    String resolvedArtifactFolder = resolveArtifactFolder(build, listener);
+    String resolvedArtifactFolder = resolveArtifactFolder(env);
     if (resolvedArtifactFolder == null || resolvedArtifactFolder.isEmpty()) {
       return MberJSON.failed("Couldn't resolve environment variables in artifact folder "+getArtifactFolder());
     }
@@ -314,14 +374,28 @@ public class MberNotifier extends Notifier
     return success;
   }
 
-  private String resolveArtifactFolder(AbstractBuild build, BuildListener listener)
+  private String resolveArtifactFolder(final EnvVars env)
   {
-    return resolveEnvironmentVariables(build, listener, getArtifactFolder());
+    // Console output and test results aren't artifacts, so they go where artifact variables are empty.
+    Template folder = compileArtifactFolder(env);
+    if (folder == null) {
+      return null;
+    }
+    return normalizeFolder(folder, folder.render(Template.Variables.NONE));
+  }
+
+  private String normalizeFolder(final Template folder, final String name)
+  {
+    if (folder.isConstant()) {
+      return name;
+    }
+    // Empty artifact variables can leave doubled or trailing slashes behind.
+    return name.replaceAll("/{2,}", "/").replaceAll("/+$", "");
   }
 
-  private FilePath[] findBuildArtifacts(final AbstractBuild build, final BuildListener listener)
+  private FilePath[] findBuildArtifacts(final AbstractBuild build, final EnvVars env)
   {
-    String artifactGlob = resolveEnvironmentVariables(build, listener, getBuildArtifacts());
+    String artifactGlob = resolveEnvironmentVariables(env, getBuildArtifacts());
     if (artifactGlob == null || artifactGlob.isEmpty()) {
       return new FilePath[0];
     }
@@ -340,41 +414,118 @@ public class MberNotifier extends Notifier
     }
   }
 
-  private Map<FilePath, String> findBuildArtifactFolders(final AbstractBuild build, final BuildListener listener, final FilePath[] artifacts)
+  private Map<FilePath, Template.Variables> describeArtifacts(final AbstractBuild build, final FilePath[] artifacts, final boolean sizes)
   {
-    // Artifact paths are relative to the workspace, and keep their folder structure when uploaded to Mber.
-    // Since the slave and master might be running on different OSes, we normalize the folder name to slashes.
-    File base = new File(resolveArtifactFolder(build, listener));
+    // Artifact paths are relative to the workspace. Since the slave and master might be running on
+    // different OSes, we normalize them to slashes.
     String workspace = build.getWorkspace().getRemote();
-    HashMap namedArtifacts = new HashMap();
+    List<FilePath> paths = new ArrayList<FilePath>();
+    JSONArray remotePaths = new JSONArray();
     for (FilePath path : artifacts) {
       if (path != null) {
-        String name = path.getRemote().replace(workspace, "");
-        name = (new File(base, name)).getPath();
+        paths.add(path);
+        remotePaths.add(path.getRemote());
+      }
+    }
+
+    // Sizes take a call to the node, so they're only fetched when a template uses them, and then all at once.
+    JSONArray infos = null;
+    if (sizes) {
+      try {
+        infos = build.getWorkspace().act(new ArtifactInfoCallable(remotePaths, false));
+      }
+      catch (Exception e) {
+        infos = null;
+      }
+    }
+
+    Map<FilePath, Template.Variables> described = new LinkedHashMap<FilePath, Template.Variables>();
+    for (int i = 0; i < paths.size(); ++i) {
+      FilePath path = paths.get(i);
+      String relative = path.getRemote().replace(workspace, "").replace("\\", "/").replaceAll("^/+", "");
+      long size = infos != null && i < infos.size() ? infos.getJSONObject(i).optLong("size", -1) : -1;
+      described.put(path, new Template.Variables(relative, size));
+    }
+    return described;
+  }
+
+  private Map<FilePath, String> findBuildArtifactFolders(final Template folder, final Map<FilePath, Template.Variables> artifacts)
+  {
+    // Artifacts keep their folder structure when uploaded to Mber, unless the folder uses artifact variables.
+    String base = folder.render(Template.Variables.NONE).replaceAll("[/\\\\]+$", "");
+    Map<FilePath, String> namedArtifacts = new LinkedHashMap<FilePath, String>();
+    for (Map.Entry<FilePath, Template.Variables> artifact : artifacts.entrySet()) {
+      Template.Variables variables = artifact.getValue();
+      String name;
+      if (folder.isConstant()) {
+        name = variables.getDirectory().isEmpty() ? base : base+"/"+variables.getDirectory();
         name = name.replace("\\", "/");
-        name = name.substring(0, name.lastIndexOf("/"));
-        namedArtifacts.put(path, name);
       }
+      else {
+        name = normalizeFolder(folder, folder.render(variables));
+      }
+      namedArtifacts.put(artifact.getKey(), name);
     }
     return namedArtifacts;
   }
 
-  private String resolveEnvironmentVariables(final AbstractBuild build, final BuildListener listener, final String value)
+  private EnvVars getEnvironment(final AbstractBuild build, final BuildListener listener)
   {
+    // Computing the environment runs every contributor and can call the node, so each step does it once.
     try {
-      return build.getEnvironment(listener).expand(value);
+      return build.getEnvironment(listener);
     }
     catch (Exception e) {
       return null;
     }
   }
 
-  private MberClient makeMberClient()
+  private String resolveEnvironmentVariables(final EnvVars env, final String value)
   {
-    if (mberConfig == null) {
-      return new MberClient(getDescriptor().getMberUrl(), getApplication());
+    if (env == null) {
+      return null;
     }
-    return new MberClient(this.mberConfig);
+    return env.expand(value);
+  }
+
+  private MberClient makeMberClient(final AbstractBuild build)
+  {
+    MberClient mber;
+    JSONObject config = MberBuildAction.of(build).getMberConfig();
+    if (config == null) {
+      mber = new MberClient(getDescriptor().getMberUrl(), getApplication());
+    }
+    else {
+      mber = new MberClient(config);
+    }
+    mber.setCredentials(getUsername(), getDecryptedPassword());
+    mber.setTokenCache(getDescriptor().getTokenCache());
+    mber.setProjectIndex(getDescriptor().getProjectIndex());
+    mber.setUploadChunkSize(getDescriptor().getUploadChunkSize() * 1024L * 1024L);
+    mber.setCompressionThreshold(getDescriptor().getCompressionThresholdBytes());
+    // Each notifier step gets its own deadline, so prebuild and perform are bounded separately.
+    mber.setDeadline(Deadline.after(getDescriptor().getStepTimeout() * 60L * 1000L));
+    if (isSkipUnchangedArtifacts()) {
+      mber.setDigestIndex(getDescriptor().getDigestIndex());
+    }
+    return mber;
+  }
+
+  private boolean isSkipUnchangedArtifacts()
+  {
+    return getDescriptor().isSkipUnchangedArtifacts() && !isArtifactFolderPerBuild();
+  }
+
+  private boolean isArtifactFolderPerBuild()
+  {
+    // Digests are kept per folder, so a folder that's new for every build never has an unchanged artifact.
+    Template folder = Template.compile(getArtifactFolder());
+    for (String variable : PER_BUILD_VARIABLES) {
+      if (folder.usesEnvironmentVariable(variable)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   private void log(final BuildListener listener, final String message)
@@ -382,11 +533,11 @@ public class MberNotifier extends Notifier
     listener.getLogger().println(message);
   }
 
-  private boolean fail(final AbstractBuild build, final BuildListener listener, final MberClient mber, final String message)
+  private boolean fail(final AbstractBuild build, final BuildListener listener, final MberClient mber, final EnvVars env, final String message)
   {
     log(listener, message);
     build.setResult(Result.FAILURE);
-    return done(build, listener, mber);
+    return done(build, listener, mber, env);
   }
 
   private boolean isFailedBuild(final AbstractBuild build)
@@ -394,44 +545,66 @@ public class MberNotifier extends Notifier
     return !build.getResult().equals(Result.SUCCESS);
   }
 
-  private boolean done(final AbstractBuild build, final BuildListener listener, final MberClient mber)
+  private boolean done(final AbstractBuild build, final BuildListener listener, final MberClient mber, final EnvVars env)
   {
-    JSONObject result;
-    // Refetch the build name and description, since users might have bound them to environment variables.
-    String mberBuildName = getMberBuildName(build, listener);
-    String mberBuildDescription = getMberBuildDescription(build, listener);
-    if (isFailedBuild(build)) {
+    if (mber.getDeadline().isExpired()) {
+      // Every remaining call would fail, so say why once instead of once per call.
+      log(listener, mber.getDeadlineError()+" Raise the Mber step timeout in the global configuration if this build needs more time.");
+      build.setResult(Result.FAILURE);
+      // Skip the uploads, but still tell Mber the build is over. Otherwise it shows as running forever.
+      ConsoleLogStreamer streamer = MberBuildAction.of(build).takeLogStreamer();
+      if (streamer != null) {
+        streamer.stop();
+      }
+      mber.setDeadline(Deadline.after(FINAL_STATUS_MILLIS));
       log(listener, "Setting Mber build status to "+BuildStatus.COMPLETED.toString()+" "+BuildStatus.FAILURE.toString());
-      result = mber.updateBuild(mberBuildName, mberBuildDescription, BuildStatus.COMPLETED, BuildStatus.FAILURE);
-    }
-    else {
-      log(listener, "Setting Mber build status to "+BuildStatus.COMPLETED.toString()+" "+BuildStatus.SUCCESS.toString());
-      result = mber.updateBuild(mberBuildName, mberBuildDescription, BuildStatus.COMPLETED, BuildStatus.SUCCESS);
+      JSONObject result = mber.updateBuild(getMberBuildName(build, env), getMberBuildDescription(build, env), BuildStatus.COMPLETED, BuildStatus.FAILURE);
+      if (!result.getString("status").equals("Success")) {
+        log(listener, result.getString("error"));
+      }
+      writeCallHistory(build, listener, mber);
+      return true;
     }
+    // Refetch the build name and description, since users might have bound them to environment variables.
+    String mberBuildName = getMberBuildName(build, env);
+    String mberBuildDescription = getMberBuildDescription(build, env);
+    BuildStatus outcome = isFailedBuild(build) ? BuildStatus.FAILURE : BuildStatus.SUCCESS;
+    log(listener, "Setting Mber build status to "+BuildStatus.COMPLETED.toString()+" "+outcome.toString());
+    // The status update doesn't depend on the test results, so they upload while it's in flight.
+    // Setting the test results' folder updates the build too, so the final status is recorded first,
+    // otherwise that update could still send RUNNING and land after this one.
+    mber.recordBuildStatus(BuildStatus.COMPLETED, outcome);
+    ListenableFuture<JSONObject> status = new AsyncMberClient(mber).updateBuild(mberBuildName, mberBuildDescription, BuildStatus.COMPLETED, outcome);
+    uploadTestEvents(build, listener, mber, env);
+    JSONObject result = getResponse(mber, status);
     if (!result.getString("status").equals("Success")) {
       // Don't call fail() here, otherwise we end up in a retry loop if we can't connect to Mber.
       log(listener, result.getString("error"));
       build.setResult(Result.FAILURE);
     }
-    uploadTestEvents(build, listener, mber);
-    uploadLogFile(build, listener, mber);
+    uploadLogFile(build, listener, mber, env);
     writeCallHistory(build, listener, mber);
     return true;
   }
 
-  private JSONObject downloadTestResults(AbstractBuild build, AbstractTestResultAction action)
+  private JSONObject getResponse(final MberClient mber, final Future<JSONObject> response)
   {
     try {
-      String url = build.getAbsoluteUrl() + action.getUrlName() + "/api/json";
-      String response = HTTParty.get(url).body;
-      return (JSONObject)JSONSerializer.toJSON(response);
+      return mber.getDeadline().get(response);
+    }
+    catch (TimeoutException e) {
+      return MberJSON.failed(mber.getDeadlineError());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return MberJSON.failed(e);
     }
-    catch (IOException e) {
-      return new JSONObject();
+    catch (ExecutionException e) {
+      return MberJSON.failed(e);
     }
   }
 
-  private void uploadTestEvents(AbstractBuild build, BuildListener listener, final MberClient mber)
+  private void uploadTestEvents(AbstractBuild build, BuildListener listener, final MberClient mber, final EnvVars env)
   {
     if (!isUploadTestResults()) {
       return;
@@ -442,20 +615,19 @@ public class MberNotifier extends Notifier
       return;
     }
 
-    log(listener, "Getting test results from Jenkins");
-
-    JSONObject testResults = downloadTestResults(build, testResultAction);
+    // Results are read from Jenkins' own test model, and written into the upload as it's sent.
+    TestResultWriter testResults = new TestResultWriter(testResultAction);
 
     log(listener, "Uploading test results to Mber");
 
-    JSONObject response = makeArtifactFolder(build, listener, mber, false);
+    JSONObject response = makeArtifactFolder(listener, mber, env, false);
     if (!response.getString("status").equals("Success")) {
       log(listener, response.getString("error"));
       return;
     }
 
     String uploadDirectoryId = response.getString("directoryId");
-    String[] tags = getUploadTags(build, listener, "tests.json");
+    String[] tags = getUploadTags(env, "tests.json");
 
     response = mber.upload(testResults, uploadDirectoryId, "tests.json", tags);
     if (response.getString("status").equals("Duplicate")) {
@@ -466,7 +638,7 @@ public class MberNotifier extends Notifier
       log(listener, response.getString("error"));
     }
 
-    response = mber.publishTestResults(testResults);
+    response = mber.publishTestResults(testResults.getCounts());
     if (!response.getString("status").equals("Success")) {
       log(listener, response.getString("error"));
     }
@@ -475,84 +647,182 @@ public class MberNotifier extends Notifier
   @Override
   public boolean prebuild(AbstractBuild build, BuildListener listener)
   {
-    // Clear the old call history. The notifier persists on a per-job basis.
+    // Clear the old call history, in case this build was restarted.
     clearCallHistory(build);
 
-    MberClient mber = makeMberClient();
+    if (CircuitBreaker.forUrl(getDescriptor().getMberUrl()).isOpen()) {
+      // Mber is down. Don't tie up the executor timing out on every call.
+      log(listener, "Mber at "+getDescriptor().getMberUrl()+" is unavailable. Skipping Mber notifications for this build.");
+      MberBuildAction.of(build).setSkipped(true);
+      return true;
+    }
+
+    MberClient mber = makeMberClient(build);
     mber.setListener(listener);
+    EnvVars env = getEnvironment(build, listener);
 
     log(listener, "Connecting to Mber at "+mber.getURL());
     JSONObject response = mber.login(getUsername(), getDecryptedPassword());
     if (!response.getString("status").equals("Success")) {
-      return fail(build, listener, mber, "Failed to connect to Mber. Check your configuration settings.");
+      return fail(build, listener, mber, env, "Failed to connect to Mber. Check your configuration settings.");
     }
 
     log(listener, "Creating Mber project "+build.getProject().getDisplayName());
     response = mber.mkproject(build.getProject().getDisplayName(), build.getProject().getDescription());
+    getDescriptor().saveProjectIndex();
     if (!response.getString("status").equals("Success")) {
-      return fail(build, listener, mber, response.getString("error"));
+      return fail(build, listener, mber, env, response.getString("error"));
     }
 
-    String mberBuildName = getMberBuildName(build, listener);
-    String mberBuildDescription = getMberBuildDescription(build, listener);
+    String mberBuildName = getMberBuildName(build, env);
+    String mberBuildDescription = getMberBuildDescription(build, env);
     log(listener, "Creating Mber build "+mberBuildName);
     log(listener, "Setting Mber build status to "+BuildStatus.RUNNING.toString());
     response = mber.mkbuild(mberBuildName, mberBuildDescription, build.getId(), BuildStatus.RUNNING);
     if (!response.getString("status").equals("Success")) {
-      return fail(build, listener, mber, response.getString("error"));
+      return fail(build, listener, mber, env, response.getString("error"));
     }
 
-    this.mberConfig = mber.toJSON();
+    MberBuildAction.of(build).setMberConfig(mber.toJSON());
     recordCallHistory(build, mber);
 
+    if (isStreamConsoleLog()) {
+      streamLogFile(build, listener, env);
+    }
+
     return true;
   }
 
+  private void streamLogFile(final AbstractBuild build, final BuildListener listener, final EnvVars env)
+  {
+    // The streamer outlives this step, so it gets its own client without the step's deadline.
+    MberClient mber = makeMberClient(build);
+    mber.setDeadline(Deadline.none());
+    JSONObject response = makeArtifactFolder(listener, mber, env, false);
+    if (!response.getString("status").equals("Success")) {
+      // The whole log is still uploaded when the build finishes.
+      log(listener, response.getString("error"));
+      recordCallHistory(build, mber);
+      return;
+    }
+
+    log(listener, "Streaming console output to Mber");
+    String[] tags = getUploadTags(env, "console.log");
+    long segmentBytes = getDescriptor().getLogSegmentSize() * 1024L * 1024L;
+    long intervalMillis = getDescriptor().getLogSegmentInterval() * 1000L;
+    ConsoleLogStreamer streamer = new ConsoleLogStreamer(build, mber, response.getString("directoryId"), tags, segmentBytes, intervalMillis);
+    MberBuildAction.of(build).setLogStreamer(streamer);
+    streamer.start();
+  }
+
   @Override
   public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener)
   {
-    MberClient mber = makeMberClient();
+    if (MberBuildAction.of(build).isSkipped()) {
+      return true;
+    }
+    if (CircuitBreaker.forUrl(getDescriptor().getMberUrl()).isOpen()) {
+      log(listener, "Mber at "+getDescriptor().getMberUrl()+" is unavailable. Skipping Mber uploads for this build.");
+      ConsoleLogStreamer streamer = MberBuildAction.of(build).takeLogStreamer();
+      if (streamer != null) {
+        streamer.stop();
+      }
+      return true;
+    }
+
+    MberClient mber = makeMberClient(build);
     mber.setListener(listener);
+    EnvVars env = getEnvironment(build, listener);
 
     if (!this.uploadArtifacts || isFailedBuild(build)) {
-      return done(build, listener, mber);
+      return done(build, listener, mber, env);
     }
 
-    FilePath[] artifacts = findBuildArtifacts(build, listener);
+    FilePath[] artifacts = findBuildArtifacts(build, env);
     if (artifacts.length == 0) {
-      return fail(build, listener, mber, "No build artifacts found in "+getBuildArtifacts());
+      return fail(build, listener, mber, env, "No build artifacts found in "+getBuildArtifacts());
     }
 
-    JSONObject response = makeArtifactFolder(build, listener, mber, true);
+    JSONObject response = makeArtifactFolder(listener, mber, env, true);
     if (!response.getString("status").equals("Success")) {
-      return fail(build, listener, mber, response.getString("error"));
+      return fail(build, listener, mber, env, response.getString("error"));
     }
 
+    Template folderTemplate = compileArtifactFolder(env);
+    Template[] tagTemplates = compileArtifactTags(env);
+    boolean sizes = folderTemplate.usesArtifactSize();
+    for (Template template : tagTemplates) {
+      sizes |= template.usesArtifactSize();
+    }
+    Map<FilePath, Template.Variables> describedArtifacts = describeArtifacts(build, artifacts, sizes);
+    Map<FilePath, String> buildArtifactFolders = findBuildArtifactFolders(folderTemplate, describedArtifacts);
+    Set<String> uniqueFolders = new HashSet<String>(buildArtifactFolders.values());
+    log(listener, "Creating "+uniqueFolders.size()+" artifact folders");
+    // Folders that fail here are retried, and reported, by each artifact's upload.
+    mber.mktree(uniqueFolders, getUploadThreads());
+
+    JSONArray errors = uploadArtifacts(build, listener, mber, tagTemplates, describedArtifacts, buildArtifactFolders);
+    if (isSkipUnchangedArtifacts()) {
+      log(listener, "Skipped "+mber.getDigestHits()+" unchanged artifacts and uploaded "+mber.getDigestMisses()+" changed artifacts");
+      // Persist the digests so the next build can skip what this one uploaded.
+      getDescriptor().saveDigestIndex();
+    }
+    else if (getDescriptor().isSkipUnchangedArtifacts()) {
+      log(listener, "Artifact folder "+getArtifactFolder()+" is new for every build, so every artifact was uploaded");
+    }
+
+    if (!errors.isEmpty()) {
+      return fail(build, listener, mber, env, errors.join("\n"));
+    }
+
+    return done(build, listener, mber, env);
+  }
+
+  private JSONObject uploadArtifact(final MberClient mber, final FilePath path, final String folder, final String[] tags)
+  {
+    JSONObject response = mber.mkpath(folder);
+    String folderId = MberJSON.getString(response, "directoryId");
+    if (!folderId.isEmpty()) {
+      response = mber.upload(path, folderId, path.getName(), tags, isOverwriteExistingFiles());
+    }
+    return response;
+  }
+
+  private JSONArray uploadArtifacts(final AbstractBuild build, final BuildListener listener, final MberClient mber, final Template[] tagTemplates, final Map<FilePath, Template.Variables> describedArtifacts, final Map<FilePath, String> buildArtifactFolders)
+  {
     JSONArray errors = new JSONArray();
+    int threads = Math.min(getUploadThreads(), Math.max(buildArtifactFolders.size(), 1));
+    log(listener, "Uploading "+buildArtifactFolders.size()+" artifacts using "+threads+" threads");
 
-    Map<FilePath, String> buildArtifactFolders = findBuildArtifactFolders(build, listener, artifacts);
+    Map<List<String>, String[]> sharedTags = new HashMap<List<String>, String[]>();
+    List<MberClient.Artifact> artifacts = new ArrayList<MberClient.Artifact>();
     Iterator<Map.Entry<FilePath, String>> folderItr = buildArtifactFolders.entrySet().iterator();
     while (folderItr.hasNext()) {
       Map.Entry<FilePath, String> artifact = folderItr.next();
       FilePath path = artifact.getKey();
-      String folder = artifact.getValue();
-      String[] tags = getUploadTags(build, listener, path);
-      log(listener, "Uploading artifact "+path.getRemote());
-      response = mber.mkpath(folder);
-      String folderId = MberJSON.getString(response, "directoryId");
-      if (!folderId.isEmpty()) {
-        response = mber.upload(path, folderId, path.getName(), tags, isOverwriteExistingFiles());
+      String[] tags = getUploadTags(tagTemplates, describedArtifacts.get(path), sharedTags);
+      artifacts.add(new MberClient.Artifact(path, artifact.getValue(), path.getName(), tags));
+    }
+
+    // Uploads run concurrently on the node, but results are logged in order so the console reads per artifact.
+    List<JSONObject> responses = mber.upload(build.getWorkspace(), artifacts, isOverwriteExistingFiles(), threads);
+    for (int i = 0; i < artifacts.size(); ++i) {
+      MberClient.Artifact artifact = artifacts.get(i);
+      log(listener, "Uploading artifact "+artifact.path.getRemote());
+      JSONObject response = responses.get(i);
+      JSONArray messages = MberJSON.getArray(response, "log");
+      for (int j = 0; j < messages.size(); ++j) {
+        log(listener, messages.getString(j));
+      }
+      if (response.getString("status").equals("NotFound")) {
+        // The client forgets folders Mber can't find, so a second try recreates them.
+        response = uploadArtifact(mber, artifact.path, artifact.folder, artifact.tags);
       }
       if (!response.getString("status").equals("Success")) {
         errors.add(MberJSON.getString(response, "error"));
       }
     }
-
-    if (!errors.isEmpty()) {
-      return fail(build, listener, mber, errors.join("\n"));
-    }
-
-    return done(build, listener, mber);
+    return errors;
   }
 
   @Override
@@ -576,12 +846,33 @@ public class MberNotifier extends Notifier
   @Extension
   public static final class DescriptorImpl extends BuildStepDescriptor<Publisher>
   {
+    private final static long INDEX_SAVE_DELAY_MILLIS = 30 * 1000;
+
     private String mberUrl;
+    private int uploadChunkSize;
+    private boolean skipUnchangedArtifacts;
+    private Integer maxRequestsPerSecond;
+    private Integer maxRequestsInFlight;
+    private Integer connectTimeout;
+    private Integer readTimeout;
+    private Integer stepTimeout;
+    private boolean compressUploads;
+    private Integer compressionThreshold;
+    private Integer logSegmentSize;
+    private Integer logSegmentInterval;
+    // Indexes are saved to their own files, not with the config.
+    private transient DigestIndex digests;
+    private transient IndexStore digestStore;
+    private transient ProjectIndex projects;
+    private transient IndexStore projectStore;
+    // Access tokens are only ever held in memory.
+    private transient TokenCache tokenCache;
 
     public DescriptorImpl()
     {
       super(MberNotifier.class);
       load();
+      applyConnectionSettings();
     }
 
     public FormValidation doValidateLogin(@QueryParameter String application, @QueryParameter String username, @QueryParameter String password)
@@ -604,6 +895,7 @@ public class MberNotifier extends Notifier
     public boolean configure(StaplerRequest req, JSONObject formData) throws FormException
     {
       req.bindJSON(this, formData);
+      applyConnectionSettings();
       save();
       return super.configure(req, formData);
     }
@@ -640,6 +932,279 @@ public class MberNotifier extends Notifier
       return "https://member.firepub.net";
     }
 
+    public int getUploadChunkSize()
+    {
+      return uploadChunkSize;
+    }
+
+    public void setUploadChunkSize(final int megabytes)
+    {
+      uploadChunkSize = Math.max(megabytes, 0);
+    }
+
+    public boolean isSkipUnchangedArtifacts()
+    {
+      return skipUnchangedArtifacts;
+    }
+
+    public void setSkipUnchangedArtifacts(final boolean skip)
+    {
+      skipUnchangedArtifacts = skip;
+    }
+
+    public int getMaxRequestsPerSecond()
+    {
+      if (maxRequestsPerSecond == null) {
+        return getDefaultMaxRequestsPerSecond();
+      }
+      return maxRequestsPerSecond;
+    }
+
+    public void setMaxRequestsPerSecond(final int requests)
+    {
+      maxRequestsPerSecond = Math.max(requests, 0);
+    }
+
+    public int getDefaultMaxRequestsPerSecond()
+    {
+      return 20;
+    }
+
+    public int getMaxRequestsInFlight()
+    {
+      if (maxRequestsInFlight == null) {
+        return getDefaultMaxRequestsInFlight();
+      }
+      return maxRequestsInFlight;
+    }
+
+    public void setMaxRequestsInFlight(final int requests)
+    {
+      maxRequestsInFlight = Math.max(requests, 0);
+    }
+
+    public int getDefaultMaxRequestsInFlight()
+    {
+      return 16;
+    }
+
+    public int getConnectTimeout()
+    {
+      if (connectTimeout == null) {
+        return getDefaultConnectTimeout();
+      }
+      return connectTimeout;
+    }
+
+    public void setConnectTimeout(final int seconds)
+    {
+      connectTimeout = Math.max(seconds, 0);
+    }
+
+    public int getDefaultConnectTimeout()
+    {
+      return 30;
+    }
+
+    public int getReadTimeout()
+    {
+      if (readTimeout == null) {
+        return getDefaultReadTimeout();
+      }
+      return readTimeout;
+    }
+
+    public void setReadTimeout(final int seconds)
+    {
+      readTimeout = Math.max(seconds, 0);
+    }
+
+    public int getDefaultReadTimeout()
+    {
+      return 120;
+    }
+
+    public int getStepTimeout()
+    {
+      if (stepTimeout == null) {
+        return getDefaultStepTimeout();
+      }
+      return stepTimeout;
+    }
+
+    public void setStepTimeout(final int minutes)
+    {
+      stepTimeout = Math.max(minutes, 0);
+    }
+
+    public int getDefaultStepTimeout()
+    {
+      return 60;
+    }
+
+    public boolean isCompressUploads()
+    {
+      return compressUploads;
+    }
+
+    public void setCompressUploads(final boolean compress)
+    {
+      compressUploads = compress;
+    }
+
+    public int getCompressionThreshold()
+    {
+      if (compressionThreshold == null) {
+        return getDefaultCompressionThreshold();
+      }
+      return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(final int kilobytes)
+    {
+      compressionThreshold = Math.max(kilobytes, 0);
+    }
+
+    public int getDefaultCompressionThreshold()
+    {
+      return 8;
+    }
+
+    long getCompressionThresholdBytes()
+    {
+      return isCompressUploads() ? getCompressionThreshold() * 1024L : -1;
+    }
+
+    public int getLogSegmentSize()
+    {
+      if (logSegmentSize == null) {
+        return getDefaultLogSegmentSize();
+      }
+      return logSegmentSize;
+    }
+
+    public void setLogSegmentSize(final int megabytes)
+    {
+      logSegmentSize = Math.max(megabytes, 1);
+    }
+
+    public int getDefaultLogSegmentSize()
+    {
+      return 1;
+    }
+
+    public int getLogSegmentInterval()
+    {
+      if (logSegmentInterval == null) {
+        return getDefaultLogSegmentInterval();
+      }
+      return logSegmentInterval;
+    }
+
+    public void setLogSegmentInterval(final int seconds)
+    {
+      logSegmentInterval = Math.max(seconds, 0);
+    }
+
+    public int getDefaultLogSegmentInterval()
+    {
+      return 60;
+    }
+
+    private void applyConnectionSettings()
+    {
+      RequestGovernor.configure(getMaxRequestsPerSecond(), getMaxRequestsInFlight());
+      HTTParty.configureTimeouts(getConnectTimeout() * 1000, getReadTimeout() * 1000);
+      HTTParty.configureCompression(getCompressionThresholdBytes());
+    }
+
+    synchronized TokenCache getTokenCache()
+    {
+      if (tokenCache == null) {
+        tokenCache = new TokenCache();
+      }
+      return tokenCache;
+    }
+
+    synchronized ProjectIndex getProjectIndex()
+    {
+      if (projects == null) {
+        projects = new ProjectIndex();
+        projects.restore(getProjectStore().load());
+      }
+      return projects;
+    }
+
+    void saveProjectIndex()
+    {
+      ProjectIndex index = getProjectIndex();
+      if (index.takeChanged()) {
+        saveProjects(index);
+      }
+    }
+
+    private void saveProjects(final ProjectIndex index)
+    {
+      getProjectStore().saveLater(new Callable<Map<String, String>>() {
+        @Override
+        public Map<String, String> call()
+        {
+          return index.snapshot();
+        }
+      });
+    }
+
+    private synchronized IndexStore getProjectStore()
+    {
+      if (projectStore == null) {
+        File file = new File(getConfigFile().getFile().getParentFile(), getId()+"-projects.xml");
+        projectStore = new IndexStore(file, INDEX_SAVE_DELAY_MILLIS);
+      }
+      return projectStore;
+    }
+
+    synchronized DigestIndex getDigestIndex()
+    {
+      if (digests == null) {
+        digests = new DigestIndex();
+        digests.restore(getDigestStore().load());
+      }
+      return digests;
+    }
+
+    void saveDigestIndex()
+    {
+      DigestIndex index = getDigestIndex();
+      if (index.takeChanged()) {
+        saveDigests(index);
+      }
+    }
+
+    private void saveDigests(final DigestIndex index)
+    {
+      getDigestStore().saveLater(new Callable<Map<String, String>>() {
+        @Override
+        public Map<String, String> call()
+        {
+          return index.snapshot();
+        }
+      });
+    }
+
+    private synchronized IndexStore getDigestStore()
+    {
+      if (digestStore == null) {
+        File file = new File(getConfigFile().getFile().getParentFile(), getId()+"-digests.xml");
+        digestStore = new IndexStore(file, INDEX_SAVE_DELAY_MILLIS);
+      }
+      return digestStore;
+    }
+
+    public String getConnectionStatus()
+    {
+      return CircuitBreaker.forUrl(getMberUrl()).describe();
+    }
+
     public String getDefaultArtifactFolder()
     {
       return "build/jenkins/${JOB_NAME}/${BUILD_NUMBER}";
@@ -649,5 +1214,10 @@ public class MberNotifier extends Notifier
     {
       return "${JOB_NAME} ${BUILD_NUMBER}";
     }
+
+    public int getDefaultUploadThreads()
+    {
+      return 4;
+    }
   }
 }
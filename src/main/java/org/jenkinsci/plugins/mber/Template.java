@@ -0,0 +1,240 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Template
+{
+  // Same variable syntax as Jenkins, so $NAME and ${NAME} both work, only the braced form takes dots, and $$ is a literal $.
+  private final static Pattern VARIABLE = Pattern.compile("\\$\\$|\\$\\{([A-Za-z0-9_.]+)\\}|\\$([A-Za-z0-9_]+)");
+
+  private final static int LITERAL = -1;
+  private final static int ENVIRONMENT = -2;
+  private final static int ARTIFACT_NAME = 0;
+  private final static int ARTIFACT_EXT = 1;
+  private final static int ARTIFACT_DIR = 2;
+  private final static int ARTIFACT_SIZE = 3;
+  private final static String[] ARTIFACT_VARIABLES = { "ARTIFACT_NAME", "ARTIFACT_EXT", "ARTIFACT_DIR", "ARTIFACT_SIZE" };
+
+  // Values for the per-artifact variables.
+  public static class Variables
+  {
+    public final static Variables NONE = new Variables("", -1);
+
+    private final String name;
+    private final String extension;
+    private final String directory;
+    private final long size;
+
+    public Variables(final String path, final long size)
+    {
+      // Paths are relative to the workspace, with slashes as separators.
+      int slash = path.lastIndexOf('/');
+      this.name = path.substring(slash + 1);
+      this.directory = slash < 0 ? "" : path.substring(0, slash);
+      int dot = this.name.lastIndexOf('.');
+      this.extension = dot <= 0 ? "" : this.name.substring(dot + 1);
+      this.size = size;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public String getDirectory()
+    {
+      return directory;
+    }
+
+    private void append(final int variable, final StringBuilder output)
+    {
+      switch (variable) {
+        case ARTIFACT_NAME:
+          output.append(name);
+          break;
+        case ARTIFACT_EXT:
+          output.append(extension);
+          break;
+        case ARTIFACT_DIR:
+          output.append(directory);
+          break;
+        case ARTIFACT_SIZE:
+          if (size >= 0) {
+            output.append(size);
+          }
+          break;
+      }
+    }
+  }
+
+  // Each part is literal text, or a variable. Variables keep their source text in case they can't be resolved.
+  private final String[] parts;
+  private final String[] sources;
+  private final int[] kinds;
+  private final String constant;
+
+  private Template(final List<String> parts, final List<String> sources, final List<Integer> kinds)
+  {
+    this.parts = parts.toArray(new String[parts.size()]);
+    this.sources = sources.toArray(new String[sources.size()]);
+    this.kinds = new int[kinds.size()];
+    for (int i = 0; i < this.kinds.length; ++i) {
+      this.kinds[i] = kinds.get(i);
+    }
+    this.constant = isConstant() ? render(Variables.NONE) : null;
+  }
+
+  public static Template compile(final String pattern)
+  {
+    List<String> parts = new ArrayList<String>();
+    List<String> sources = new ArrayList<String>();
+    List<Integer> kinds = new ArrayList<Integer>();
+    Matcher matcher = VARIABLE.matcher(pattern == null ? "" : pattern);
+    int offset = 0;
+    while (matcher.find()) {
+      if (matcher.start() > offset) {
+        addLiteral(parts, sources, kinds, pattern.substring(offset, matcher.start()));
+      }
+      offset = matcher.end();
+      if (matcher.group(1) == null && matcher.group(2) == null) {
+        addLiteral(parts, sources, kinds, "$");
+        continue;
+      }
+      String name = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+      parts.add(name);
+      sources.add(matcher.group());
+      kinds.add(getKind(name));
+    }
+    if (pattern != null && offset < pattern.length()) {
+      addLiteral(parts, sources, kinds, pattern.substring(offset));
+    }
+    return new Template(parts, sources, kinds);
+  }
+
+  public Template bind(final Map<String, String> environment)
+  {
+    // Resolves everything but the per-artifact variables, so that's only done once per build step.
+    // Variables that aren't in the environment are left as they were written, like EnvVars.expand().
+    List<String> parts = new ArrayList<String>();
+    List<String> sources = new ArrayList<String>();
+    List<Integer> kinds = new ArrayList<Integer>();
+    for (int i = 0; i < this.parts.length; ++i) {
+      if (this.kinds[i] == ENVIRONMENT) {
+        String value = environment.get(this.parts[i]);
+        addLiteral(parts, sources, kinds, value != null ? value : this.sources[i]);
+      }
+      else if (this.kinds[i] == LITERAL) {
+        addLiteral(parts, sources, kinds, this.parts[i]);
+      }
+      else {
+        parts.add(this.parts[i]);
+        sources.add(this.sources[i]);
+        kinds.add(this.kinds[i]);
+      }
+    }
+    return new Template(parts, sources, kinds);
+  }
+
+  public boolean isConstant()
+  {
+    return !uses(ARTIFACT_NAME) && !uses(ARTIFACT_EXT) && !uses(ARTIFACT_DIR) && !uses(ARTIFACT_SIZE);
+  }
+
+  public boolean usesArtifactSize()
+  {
+    return uses(ARTIFACT_SIZE);
+  }
+
+  public boolean usesEnvironmentVariable(final String name)
+  {
+    // Only meaningful before bind(), which turns environment variables into literal text.
+    for (int i = 0; i < this.parts.length; ++i) {
+      if (this.kinds[i] == ENVIRONMENT && this.parts[i].equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public String render(final Variables variables)
+  {
+    if (this.constant != null) {
+      return this.constant;
+    }
+    StringBuilder output = new StringBuilder();
+    for (int i = 0; i < this.parts.length; ++i) {
+      if (this.kinds[i] == LITERAL) {
+        output.append(this.parts[i]);
+      }
+      else if (this.kinds[i] == ENVIRONMENT) {
+        output.append(this.sources[i]);
+      }
+      else {
+        variables.append(this.kinds[i], output);
+      }
+    }
+    return output.toString();
+  }
+
+  private boolean uses(final int variable)
+  {
+    for (int kind : this.kinds) {
+      if (kind == variable) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void addLiteral(final List<String> parts, final List<String> sources, final List<Integer> kinds, final String text)
+  {
+    // Adjacent literals are merged, so rendering appends as few parts as possible.
+    int last = kinds.size() - 1;
+    if (last >= 0 && kinds.get(last) == LITERAL) {
+      parts.set(last, parts.get(last) + text);
+      sources.set(last, parts.get(last));
+      return;
+    }
+    parts.add(text);
+    sources.add(text);
+    kinds.add(LITERAL);
+  }
+
+  private static int getKind(final String name)
+  {
+    for (int i = 0; i < ARTIFACT_VARIABLES.length; ++i) {
+      if (ARTIFACT_VARIABLES[i].equals(name)) {
+        return i;
+      }
+    }
+    return ENVIRONMENT;
+  }
+}
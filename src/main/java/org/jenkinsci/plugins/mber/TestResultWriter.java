@@ -0,0 +1,123 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
+import hudson.tasks.junit.TestResult;
+import hudson.tasks.test.AbstractTestResultAction;
+import java.io.IOException;
+import java.io.OutputStream;
+import net.sf.json.JSONObject;
+import org.apache.http.entity.ContentProducer;
+
+public class TestResultWriter implements ContentProducer
+{
+  private final static JsonFactory factory = new JsonFactory();
+
+  private final AbstractTestResultAction action;
+
+  public TestResultWriter(final AbstractTestResultAction action)
+  {
+    this.action = action;
+  }
+
+  public JSONObject getCounts()
+  {
+    JSONObject counts = new JSONObject();
+    counts.put("failCount", action.getFailCount());
+    counts.put("skipCount", action.getSkipCount());
+    counts.put("passCount", getPassCount());
+    counts.put("totalCount", action.getTotalCount());
+    return counts;
+  }
+
+  @Override
+  public void writeTo(final OutputStream output) throws IOException
+  {
+    // Results are written straight from Jenkins' test model, one case at a time, so
+    // large suites never exist as a JSON tree or String in memory.
+    JsonGenerator json = factory.createGenerator(output, JsonEncoding.UTF8);
+    json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    json.writeStartObject();
+    json.writeNumberField("failCount", action.getFailCount());
+    json.writeNumberField("skipCount", action.getSkipCount());
+    json.writeNumberField("passCount", getPassCount());
+    json.writeNumberField("totalCount", action.getTotalCount());
+    Object result = action.getResult();
+    if (result instanceof TestResult) {
+      writeSuites(json, (TestResult)result);
+    }
+    json.writeEndObject();
+    json.flush();
+  }
+
+  private void writeSuites(final JsonGenerator json, final TestResult result) throws IOException
+  {
+    json.writeNumberField("duration", result.getDuration());
+    json.writeBooleanField("empty", result.isEmpty());
+    json.writeArrayFieldStart("suites");
+    for (SuiteResult suite : result.getSuites()) {
+      json.writeStartObject();
+      json.writeStringField("name", suite.getName());
+      json.writeStringField("timestamp", suite.getTimestamp());
+      json.writeNumberField("duration", suite.getDuration());
+      json.writeStringField("stdout", suite.getStdout());
+      json.writeStringField("stderr", suite.getStderr());
+      json.writeArrayFieldStart("cases");
+      for (CaseResult test : suite.getCases()) {
+        writeCase(json, test);
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+  }
+
+  private void writeCase(final JsonGenerator json, final CaseResult test) throws IOException
+  {
+    json.writeStartObject();
+    json.writeStringField("name", test.getName());
+    json.writeStringField("className", test.getClassName());
+    json.writeNumberField("duration", test.getDuration());
+    json.writeStringField("status", test.getStatus().name());
+    json.writeBooleanField("skipped", test.isSkipped());
+    json.writeNumberField("age", test.getAge());
+    json.writeNumberField("failedSince", test.getFailedSince());
+    json.writeStringField("errorDetails", test.getErrorDetails());
+    json.writeStringField("errorStackTrace", test.getErrorStackTrace());
+    json.writeStringField("stdout", test.getStdout());
+    json.writeStringField("stderr", test.getStderr());
+    json.writeEndObject();
+  }
+
+  private int getPassCount()
+  {
+    return action.getTotalCount() - action.getFailCount() - action.getSkipCount();
+  }
+}
@@ -32,14 +32,21 @@ public class UploadArtifactsBlock
   private final String artifactFolder;
   private final String artifactTags;
   private final boolean overwriteExistingFiles;
+  private final int uploadThreads;
 
-  @DataBoundConstructor
   public UploadArtifactsBlock(String buildArtifacts, String artifactFolder, String artifactTags, boolean overwriteExistingFiles)
+  {
+    this(buildArtifacts, artifactFolder, artifactTags, overwriteExistingFiles, 0);
+  }
+
+  @DataBoundConstructor
+  public UploadArtifactsBlock(String buildArtifacts, String artifactFolder, String artifactTags, boolean overwriteExistingFiles, int uploadThreads)
   {
     this.buildArtifacts = buildArtifacts;
     this.artifactFolder = artifactFolder;
     this.artifactTags = artifactTags;
     this.overwriteExistingFiles = overwriteExistingFiles;
+    this.uploadThreads = uploadThreads;
   }
 
   public String getBuildArtifacts()
@@ -61,4 +68,9 @@ public class UploadArtifactsBlock
   {
     return overwriteExistingFiles;
   }
+
+  public int getUploadThreads()
+  {
+    return uploadThreads;
+  }
 }
@@ -0,0 +1,166 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.mber.client.DaemonThreadFactory;
+import hudson.model.BuildListener;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UploadProgress
+{
+  private final static long REPORT_PERIOD_MILLIS = 1 * 60 * 1000;
+
+  // One thread reports progress for every upload running in this JVM.
+  private final static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Mber upload progress"));
+
+  private final BuildListener listener;
+  private final UploadProgress batch;
+  private final List<String> messages;
+  private final AtomicLong expectedBytes = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicInteger files = new AtomicInteger();
+  private long startTime;
+  private ScheduledFuture<?> report;
+
+  public UploadProgress(BuildListener listener)
+  {
+    this.listener = listener;
+    this.batch = null;
+    this.messages = null;
+  }
+
+  public UploadProgress(UploadProgress batch)
+  {
+    this(batch, null);
+  }
+
+  public UploadProgress(UploadProgress batch, List<String> messages)
+  {
+    // Tracks one file of a larger upload. Bytes are passed on to the batch, which does the reporting.
+    // Messages are kept in the list, if there is one, so they can be printed with the file's result.
+    this.listener = null;
+    this.batch = batch;
+    this.messages = messages;
+  }
+
+  public void expect(final long bytes)
+  {
+    this.expectedBytes.addAndGet(bytes);
+    this.files.incrementAndGet();
+  }
+
+  public void written(final long bytes)
+  {
+    this.bytesWritten.addAndGet(bytes);
+    if (this.batch != null) {
+      this.batch.written(bytes);
+    }
+  }
+
+  public void rewindTo(final long bytes)
+  {
+    // Takes back bytes that were sent but not kept, so they aren't counted twice when they're resent.
+    written(bytes - this.bytesWritten.get());
+  }
+
+  long getBytesWritten()
+  {
+    return this.bytesWritten.get();
+  }
+
+  public synchronized void start()
+  {
+    if (this.listener == null || this.report != null) {
+      return;
+    }
+    this.startTime = System.currentTimeMillis();
+    this.report = scheduler.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run()
+      {
+        log("Uploaded "+toMegabytes(bytesWritten.get())+" of "+toMegabytes(expectedBytes.get())+" MB in "+files.get()+" files ("+getRate()+" MB/s, "+getEta()+" remaining)");
+      }
+    }, REPORT_PERIOD_MILLIS, REPORT_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop()
+  {
+    if (this.report == null) {
+      return;
+    }
+    this.report.cancel(false);
+    this.report = null;
+    if (getElapsedMillis() >= REPORT_PERIOD_MILLIS) {
+      // Only summarize uploads long enough to have shown progress.
+      log("Uploaded "+toMegabytes(bytesWritten.get())+" MB in "+files.get()+" files ("+getRate()+" MB/s)");
+    }
+  }
+
+  public void log(final String message)
+  {
+    if (this.messages != null) {
+      this.messages.add(message);
+    }
+    else if (this.batch != null) {
+      this.batch.log(message);
+    }
+    else if (this.listener != null) {
+      this.listener.getLogger().println(message);
+    }
+  }
+
+  private long getElapsedMillis()
+  {
+    return Math.max(System.currentTimeMillis() - this.startTime, 1);
+  }
+
+  private String getRate()
+  {
+    double megabytes = this.bytesWritten.get() / (1024.0 * 1024.0);
+    return String.format("%.1f", megabytes * 1000 / getElapsedMillis());
+  }
+
+  private String getEta()
+  {
+    long written = this.bytesWritten.get();
+    long remaining = Math.max(this.expectedBytes.get() - written, 0);
+    if (written <= 0) {
+      return "unknown time";
+    }
+    long seconds = remaining * getElapsedMillis() / written / 1000;
+    return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+  }
+
+  private static String toMegabytes(final long bytes)
+  {
+    return String.format("%.1f", bytes / (1024.0 * 1024.0));
+  }
+}
@@ -0,0 +1,61 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest
+{
+  @Test
+  public void tripsAfterConsecutiveFailures() throws Exception
+  {
+    CircuitBreaker breaker = CircuitBreaker.forUrl("http://trips.this.is.mber/service/json");
+    for (int i = 0; i < 4; ++i) {
+      breaker.recordFailure();
+    }
+    Assert.assertTrue("Opened before reaching the failure threshold", breaker.allowRequest());
+
+    breaker.recordFailure();
+    Assert.assertTrue("Didn't open after five failures", breaker.isOpen());
+    Assert.assertFalse("Let a request through while open", breaker.allowRequest());
+
+    // Breakers are shared by every client using the same Mber.
+    Assert.assertSame("Didn't share the breaker for the same base URL", breaker, CircuitBreaker.forUrl("http://trips.this.is.mber/other/path"));
+  }
+
+  @Test
+  public void resetsOnSuccess() throws Exception
+  {
+    CircuitBreaker breaker = CircuitBreaker.forUrl("http://resets.this.is.mber");
+    for (int i = 0; i < 4; ++i) {
+      breaker.recordFailure();
+    }
+    breaker.recordSuccess();
+    breaker.recordFailure();
+    Assert.assertEquals("Success didn't reset the failure count", CircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertTrue("Blocked a request after a success", breaker.allowRequest());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeadlineTest
+{
+  @Test
+  public void neverExpiresWithoutALimit() throws Exception
+  {
+    Deadline deadline = Deadline.none();
+    Assert.assertFalse("Bounded a deadline without a limit", deadline.isBounded());
+    Assert.assertFalse("Expired a deadline without a limit", deadline.isExpired());
+    Assert.assertEquals("Limited the time left on a deadline without a limit", Long.MAX_VALUE, deadline.getRemainingMillis());
+    Assert.assertFalse("Bounded a deadline of zero milliseconds", Deadline.after(0).isBounded());
+  }
+
+  @Test
+  public void expiresAfterItsLimit() throws Exception
+  {
+    Deadline deadline = Deadline.after(100);
+    Assert.assertTrue("Didn't bound a deadline with a limit", deadline.isBounded());
+    Assert.assertFalse("Expired a deadline too soon", deadline.isExpired());
+    Assert.assertTrue("Reported more time left than the limit", deadline.getRemainingMillis() <= 100);
+    Assert.assertEquals("Lost the deadline's limit", 100, deadline.getMillis());
+
+    Thread.sleep(150);
+    Assert.assertTrue("Didn't expire a deadline past its limit", deadline.isExpired());
+    Assert.assertEquals("Reported time left on an expired deadline", 0, deadline.getRemainingMillis());
+  }
+
+  @Test
+  public void returnsFinishedWork() throws Exception
+  {
+    FutureTask<String> work = new FutureTask<String>(new Callable<String>() {
+      @Override
+      public String call()
+      {
+        return "done";
+      }
+    });
+    work.run();
+    Assert.assertEquals("Didn't return finished work", "done", Deadline.after(1000).get(work));
+    Assert.assertEquals("Didn't return finished work without a limit", "done", Deadline.none().get(work));
+  }
+
+  @Test
+  public void cancelsWorkThatOutlivesIt() throws Exception
+  {
+    // Never run, so it can only finish by being cancelled.
+    FutureTask<String> work = new FutureTask<String>(new Callable<String>() {
+      @Override
+      public String call()
+      {
+        return "done";
+      }
+    });
+    try {
+      Deadline.after(50).get(work);
+      Assert.fail("Didn't time out waiting for unfinished work");
+    }
+    catch (TimeoutException e) {
+    }
+    Assert.assertTrue("Didn't cancel work that outlived the deadline", work.isCancelled());
+  }
+}
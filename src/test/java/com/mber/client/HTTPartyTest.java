@@ -0,0 +1,132 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import net.sf.json.JSONObject;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.entity.ContentProducer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class HTTPartyTest
+{
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void streamsBase64Fields() throws Exception
+  {
+    WireMock.stubFor(WireMock.post(WireMock.urlEqualTo("/document"))
+      .willReturn(WireMock.aResponse().withStatus(200).withBody("{\"status\":\"Success\"}"))
+    );
+
+    JSONObject data = new JSONObject();
+    data.put("name", "tests.json");
+    HTTParty.Call call = HTTParty.post("http://localhost:8089/document", data, "content", new ContentProducer() {
+      @Override
+      public void writeTo(final OutputStream output) throws IOException
+      {
+        output.write("{\"failCount\":1}".getBytes("UTF-8"));
+      }
+    });
+    Assert.assertEquals("Failed to post streamed content", 200, call.code);
+
+    // The streamed field decodes to exactly what the producer wrote, alongside the other fields.
+    String body = WireMock.findAll(WireMock.postRequestedFor(WireMock.urlEqualTo("/document"))).get(0).getBodyAsString();
+    JSONObject sent = JSONObject.fromObject(body);
+    Assert.assertEquals("Lost a field", "tests.json", sent.getString("name"));
+    Assert.assertEquals("Content didn't round trip", "{\"failCount\":1}", new String(Base64.decodeBase64(sent.getString("content")), "UTF-8"));
+  }
+
+  @Test
+  public void resendsUncompressedWhenGzipIsRejected() throws Exception
+  {
+    // This server can't take a chunked gzip body, and says so with a 411 instead of a 415.
+    WireMock.stubFor(WireMock.post(WireMock.urlEqualTo("/gzip"))
+      .willReturn(WireMock.aResponse().withStatus(200).withBody("{\"status\":\"Success\"}"))
+    );
+    WireMock.stubFor(WireMock.post(WireMock.urlEqualTo("/gzip"))
+      .withHeader("Content-Encoding", WireMock.equalTo("gzip"))
+      .willReturn(WireMock.aResponse().withStatus(411))
+    );
+
+    HTTParty.configureCompression(0);
+    try {
+      HTTParty.Call call = HTTParty.post("http://localhost:8089/gzip", new JSONObject(), "content", new ContentProducer() {
+        @Override
+        public void writeTo(final OutputStream output) throws IOException
+        {
+          output.write("{\"failCount\":1}".getBytes("UTF-8"));
+        }
+      });
+      Assert.assertEquals("Didn't resend the body uncompressed", 200, call.code);
+    }
+    finally {
+      HTTParty.configureCompression(-1);
+    }
+
+    List<LoggedRequest> requests = WireMock.findAll(WireMock.postRequestedFor(WireMock.urlEqualTo("/gzip")));
+    Assert.assertEquals("Didn't try compressed first, then uncompressed", 2, requests.size());
+    Assert.assertTrue("Didn't compress the first attempt", requests.get(0).containsHeader("Content-Encoding"));
+    Assert.assertFalse("Compressed the retry", requests.get(1).containsHeader("Content-Encoding"));
+  }
+
+  @Test
+  public void doesNotResendBadRequests() throws Exception
+  {
+    // A 400 that doesn't mention the encoding is a real error, and is reported as is.
+    WireMock.stubFor(WireMock.post(WireMock.urlEqualTo("/invalid"))
+      .willReturn(WireMock.aResponse().withStatus(400).withBody("{\"status\":\"Failed\",\"error\":\"Invalid name\"}"))
+    );
+
+    HTTParty.configureCompression(0);
+    HTTParty.Call call;
+    try {
+      call = HTTParty.post("http://localhost:8089/invalid", new JSONObject(), "content", new ContentProducer() {
+        @Override
+        public void writeTo(final OutputStream output) throws IOException
+        {
+          output.write("{\"failCount\":1}".getBytes("UTF-8"));
+        }
+      });
+    }
+    finally {
+      HTTParty.configureCompression(-1);
+    }
+    Assert.assertEquals("Didn't report the bad request", 400, call.code);
+    Assert.assertTrue("Lost the bad request's error", call.body.contains("Invalid name"));
+
+    List<LoggedRequest> requests = WireMock.findAll(WireMock.postRequestedFor(WireMock.urlEqualTo("/invalid")));
+    Assert.assertEquals("Resent a bad request uncompressed", 1, requests.size());
+    Assert.assertTrue("Didn't compress the request", requests.get(0).containsHeader("Content-Encoding"));
+  }
+}
@@ -478,6 +478,82 @@ public class MberClientTest extends MberTest
     }
   }
 
+  @Test
+  public void cachesFolders() throws Exception
+  {
+    checkMberVariables();
+    MberClient mber = new MberClient(getMberUrl(), getMberApplicationId());
+
+    Stack<JSONObject> results = new Stack<JSONObject>();
+
+    try {
+      results.push(mber.login(getMberUsername(), getMberPassword()));
+      results.push(mber.mkpath("jenkins-mber-plugin/test/cache"));
+      Assert.assertEquals("Failed to create folder", "Success", results.peek().getString("status"));
+      String directoryId = results.peek().getString("directoryId");
+      int calls = mber.getCallHistory().size();
+
+      // Creating the same folder again shouldn't talk to Mber.
+      results.push(mber.mkpath("/jenkins-mber-plugin//test/cache/"));
+      Assert.assertEquals("Failed to create cached folder", "Success", results.peek().getString("status"));
+      Assert.assertEquals("Cached folder had a different directory ID", directoryId, results.peek().getString("directoryId"));
+      Assert.assertEquals("Cached folder made calls to Mber", calls, mber.getCallHistory().size());
+
+      // Creating a child folder should only create the new segment.
+      // * 1 to check the alias
+      // * 1 to create the folder
+      results.push(mber.mkpath("jenkins-mber-plugin/test/cache/child"));
+      Assert.assertEquals("Failed to create child of cached folder", "Success", results.peek().getString("status"));
+      Assert.assertEquals("Child of cached folder recreated its parents", calls + 2, mber.getCallHistory().size());
+    }
+    finally {
+      mberCleanup(results, mber.getURL(), "data/directory", "directoryId");
+    }
+  }
+
+  @Test
+  public void createsFolderTrees() throws Exception
+  {
+    checkMberVariables();
+    MberClient mber = new MberClient(getMberUrl(), getMberApplicationId());
+
+    Stack<JSONObject> results = new Stack<JSONObject>();
+    ArrayList<String> paths = new ArrayList<String>();
+    paths.add("jenkins-mber-plugin/test/tree/a");
+    paths.add("jenkins-mber-plugin/test/tree/b");
+    paths.add("jenkins-mber-plugin/test/tree/c");
+
+    try {
+      // Fails unless logged in. Only the top folder is tried, and every folder under it reports an error.
+      // There should be two calls.
+      // * 1 to check the alias
+      // * 1 to create the folder
+      JSONObject response = mber.mktree(paths, 4);
+      Assert.assertEquals("Created folder tree unexpectedly", "Failed", response.getString("status"));
+      Assert.assertEquals("Folders under a failed parent were tried", 2, mber.getCallHistory().size());
+      String[] errors = response.getString("error").split("\n");
+      Assert.assertEquals("Skipped folders weren't reported", 6, errors.length);
+      Assert.assertTrue("Skipped folder error didn't name its parent", errors[5].contains("jenkins-mber-plugin/test/tree/"));
+
+      // Succeeds when logged in, creating sibling folders once each.
+      results.push(mber.login(getMberUsername(), getMberPassword()));
+      response = mber.mktree(paths, 4);
+      assertSuccess("Failed to create folder tree", response);
+      int calls = mber.getCallHistory().size();
+
+      // Every folder in the tree is cached, so creating them again shouldn't talk to Mber.
+      for (String path : paths) {
+        results.push(mber.mkpath(path));
+        Assert.assertEquals("Failed to create folder in tree", "Success", results.peek().getString("status"));
+        assertNotEmpty("No directory ID found for folder in tree", results.peek().getString("directoryId"));
+      }
+      Assert.assertEquals("Folders in tree weren't cached", calls, mber.getCallHistory().size());
+    }
+    finally {
+      mberCleanup(results, mber.getURL(), "data/directory", "directoryId");
+    }
+  }
+
   @Test
   public void createsProjectsAndBuilds() throws Exception
   {
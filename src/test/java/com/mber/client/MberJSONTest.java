@@ -0,0 +1,64 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MberJSONTest
+{
+  @Test
+  public void summarizesListings() throws Exception
+  {
+    String body = "{\"status\":\"Success\",\"result\":{\"name\":\"build\",\"documents\":[{\"name\":\"a.zip\",\"documentId\":\"1\",\"tags\":[\"x\"]}],"
+      + "\"directories\":[{\"name\":\"first\",\"directoryId\":\"11\"},{\"directoryId\":\"12\"},{\"name\":\"second\",\"meta\":{\"name\":\"nested\"},\"directoryId\":\"13\"}]}}";
+    MberJSON.Index directories = new MberJSON.Index(new HashMap<String, String>(), new String[] { "result", "directories" }, "directoryId", "name");
+    JSONObject summary = MberJSON.summarize(new ByteArrayInputStream(body.getBytes("UTF-8")), directories);
+
+    Assert.assertEquals("Didn't keep the status", "Success", summary.getString("status"));
+    Assert.assertFalse("Kept a nested object", summary.has("result"));
+
+    Map<String, String> entries = directories.getEntries();
+    Assert.assertEquals("Indexed the wrong number of folders", 2, entries.size());
+    Assert.assertEquals("Didn't index the first folder", "11", entries.get("first"));
+    Assert.assertEquals("Indexed a nested field instead of the folder's", "13", entries.get("second"));
+  }
+
+  @Test
+  public void prefersEarlierKeyFields() throws Exception
+  {
+    String body = "{\"status\":\"Success\",\"results\":[{\"name\":\"Named\",\"alias\":\"aliased\",\"projectId\":\"1\"},{\"name\":\"Unaliased\",\"projectId\":\"2\"}]}";
+    MberJSON.Index projects = new MberJSON.Index(new HashMap<String, String>(), new String[] { "results" }, "projectId", "alias", "name");
+    MberJSON.summarize(new ByteArrayInputStream(body.getBytes("UTF-8")), projects);
+
+    Assert.assertEquals("Didn't key by alias", "1", projects.getEntries().get("aliased"));
+    Assert.assertEquals("Didn't fall back to the name", "2", projects.getEntries().get("Unaliased"));
+    Assert.assertFalse("Keyed an aliased project by name", projects.getEntries().containsKey("Named"));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.net.URI;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestGovernorTest
+{
+  @After
+  public void restoreLimits()
+  {
+    RequestGovernor.configure(20, 16);
+  }
+
+  @Test
+  public void limitsRequestRate() throws Exception
+  {
+    // The bucket starts full, so a second's worth of requests goes out at once. The next one waits for a token.
+    RequestGovernor.configure(10, 0);
+    RequestGovernor governor = new RequestGovernor();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 10; ++i) {
+      governor.acquire();
+      governor.release();
+    }
+    Assert.assertTrue("Held up requests within the burst", System.currentTimeMillis() - start < 90);
+
+    start = System.currentTimeMillis();
+    governor.acquire();
+    governor.release();
+    Assert.assertTrue("Didn't wait for a token after the burst", System.currentTimeMillis() - start >= 50);
+  }
+
+  @Test
+  public void capsRequestsInFlight() throws Exception
+  {
+    RequestGovernor.configure(0, 2);
+    final RequestGovernor governor = new RequestGovernor();
+    governor.acquire();
+    governor.acquire();
+
+    Thread third = new Thread(new Runnable() {
+      @Override
+      public void run()
+      {
+        try {
+          governor.acquire();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    third.start();
+    third.join(100);
+    Assert.assertTrue("Sent a request past the in flight cap", third.isAlive());
+    Assert.assertEquals("Counted a waiting request as in flight", 2, governor.getInFlight());
+
+    governor.release();
+    third.join(1000);
+    Assert.assertFalse("Didn't send a waiting request when a slot freed up", third.isAlive());
+    Assert.assertEquals("Lost count of requests in flight", 2, governor.getInFlight());
+  }
+
+  @Test
+  public void pausesForRetryAfter() throws Exception
+  {
+    RequestGovernor.configure(0, 0);
+    RequestGovernor governor = new RequestGovernor();
+    governor.pause(200);
+    long start = System.currentTimeMillis();
+    governor.acquire();
+    governor.release();
+    Assert.assertTrue("Sent a request while paused", System.currentTimeMillis() - start >= 150);
+  }
+
+  @Test
+  public void sharesGovernorsPerHost() throws Exception
+  {
+    RequestGovernor governor = RequestGovernor.forUri(URI.create("http://shares.this.is.mber/service/json"));
+    Assert.assertSame("Didn't share the governor for the same host", governor, RequestGovernor.forUri(URI.create("http://shares.this.is.mber/other")));
+    Assert.assertNotSame("Shared the governor with another port", governor, RequestGovernor.forUri(URI.create("http://shares.this.is.mber:8089/service/json")));
+  }
+}
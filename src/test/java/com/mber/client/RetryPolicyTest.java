@@ -0,0 +1,125 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import java.util.Map;
+import java.util.TreeMap;
+import net.sf.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryPolicyTest
+{
+  @Test
+  public void retriesOnlyTransientFailures() throws Exception
+  {
+    RetryPolicy policy = new RetryPolicy(3, 2, 100, 1000, 100);
+
+    // Gateway errors and dropped connections are worth another try.
+    Assert.assertTrue("Didn't retry a 502", policy.shouldRetry("GET", null, 502, 1));
+    Assert.assertTrue("Didn't retry a 503", policy.shouldRetry("PUT", null, 503, 1));
+    Assert.assertTrue("Didn't retry a dropped connection", policy.shouldRetry("GET", null, -1, 1));
+
+    // Anything Mber actually answered isn't.
+    Assert.assertFalse("Retried a 200", policy.shouldRetry("GET", null, 200, 1));
+    Assert.assertFalse("Retried a 404", policy.shouldRetry("GET", null, 404, 1));
+  }
+
+  @Test
+  public void retriesPostsOnlyWithTransactionIds() throws Exception
+  {
+    RetryPolicy policy = new RetryPolicy(3, 2, 100, 1000, 100);
+
+    JSONObject withTransaction = new JSONObject();
+    withTransaction.put("transactionId", MberClient.generateTransactionId());
+    Assert.assertTrue("Didn't retry a POST with a transaction ID", policy.shouldRetry("POST", withTransaction, 503, 1));
+    Assert.assertFalse("Retried a POST past its attempt limit", policy.shouldRetry("POST", withTransaction, 503, 2));
+
+    Assert.assertFalse("Retried a POST without a transaction ID", policy.shouldRetry("POST", new JSONObject(), 503, 1));
+  }
+
+  @Test
+  public void limitsRetries() throws Exception
+  {
+    // Stops at the attempt limit for the endpoint.
+    RetryPolicy attempts = new RetryPolicy(3, 2, 100, 1000, 100);
+    Assert.assertTrue("Stopped retrying early", attempts.shouldRetry("GET", null, 503, 2));
+    Assert.assertFalse("Retried past the attempt limit", attempts.shouldRetry("GET", null, 503, 3));
+
+    // Stops once the budget is spent, no matter the endpoint.
+    RetryPolicy budget = new RetryPolicy(10, 10, 100, 1000, 2);
+    Assert.assertTrue("Didn't spend the budget", budget.shouldRetry("GET", null, 503, 1));
+    Assert.assertTrue("Didn't spend the budget", budget.shouldRetry("GET", null, 503, 1));
+    Assert.assertFalse("Retried past the budget", budget.shouldRetry("GET", null, 503, 1));
+  }
+
+  @Test
+  public void backsOffWithJitter() throws Exception
+  {
+    RetryPolicy policy = new RetryPolicy(10, 10, 100, 1000, 100);
+    for (int i = 0; i < 100; ++i) {
+      Assert.assertTrue("First delay was too long", policy.getDelay(1) <= 100);
+      Assert.assertTrue("Third delay was too long", policy.getDelay(3) <= 400);
+      Assert.assertTrue("Delay wasn't capped", policy.getDelay(10) <= 1000);
+      Assert.assertTrue("Delay was negative", policy.getDelay(10) >= 0);
+    }
+  }
+
+  @Test
+  public void honorsRetryAfter() throws Exception
+  {
+    RetryPolicy policy = new RetryPolicy(3, 2, 100, 1000, 100);
+    Assert.assertTrue("Didn't retry a 429", policy.shouldRetry("GET", null, 429, 1));
+
+    Assert.assertTrue("Retried sooner than Retry-After", policy.getDelay(1, throttled("5")) >= 5000);
+    Assert.assertTrue("Didn't retry a short Retry-After", policy.shouldRetry("GET", null, throttled("5"), 1));
+    Assert.assertFalse("Waited on a long Retry-After", policy.shouldRetry("GET", null, throttled("3600"), 1));
+
+    Assert.assertEquals("Misread Retry-After seconds", 120 * 1000, HTTParty.parseRetryAfter("120"));
+    Assert.assertEquals("Misread a past Retry-After date", 0, HTTParty.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT"));
+    Assert.assertEquals("Misread a missing Retry-After", -1, HTTParty.parseRetryAfter(null));
+  }
+
+  @Test
+  public void treatsRetryAfterAsThrottling() throws Exception
+  {
+    // Busy isn't down, so these don't count against the circuit breaker.
+    Assert.assertTrue("Didn't treat a 429 as throttling", RetryPolicy.isThrottled(throttled("5")));
+    Assert.assertTrue("Didn't treat a 503 with Retry-After as throttling", RetryPolicy.isThrottled(throttled(503, "5")));
+    Assert.assertFalse("Treated a plain 503 as throttling", RetryPolicy.isThrottled(new HTTParty.Call("GET", null, 503, "")));
+  }
+
+  private static HTTParty.Call throttled(final String retryAfter)
+  {
+    return throttled(429, retryAfter);
+  }
+
+  private static HTTParty.Call throttled(final int code, final String retryAfter)
+  {
+    Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    headers.put("Retry-After", retryAfter);
+    return new HTTParty.Call("GET", null, code, "", headers);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package com.mber.client;
+import net.sf.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenCacheTest
+{
+  @Test
+  public void reusesTokens() throws Exception
+  {
+    TokenCache cache = new TokenCache();
+    String key = TokenCache.key("http://this.is.mber", "app", "user");
+    cache.put(key, "password", "'app", makeToken("TOKEN", 60 * 60));
+
+    JSONObject cached = cache.get(key, "password");
+    Assert.assertNotNull("Didn't reuse a token that hasn't expired", cached);
+    Assert.assertEquals("Reused the wrong token", "TOKEN", cached.getString("access_token"));
+    Assert.assertEquals("Reused the wrong application ID", "APPLICATIONID", cached.getString("applicationId"));
+    Assert.assertEquals("Didn't mark the reused token as a success", "Success", cached.getString("status"));
+
+    // Tokens are per URL, application and user.
+    Assert.assertNull("Reused a token for another user", cache.get(TokenCache.key("http://this.is.mber", "app", "other"), "password"));
+    Assert.assertNull("Reused a token for another password", cache.get(key, "changed"));
+  }
+
+  @Test
+  public void expiresTokens() throws Exception
+  {
+    // Tokens are refreshed well before they expire, so a token with a minute left isn't reused.
+    TokenCache cache = new TokenCache();
+    String key = TokenCache.key("http://this.is.mber", "app", "user");
+    cache.put(key, "password", "'app", makeToken("TOKEN", 60));
+    Assert.assertNull("Reused a token that's about to expire", cache.get(key, "password"));
+
+    // Tokens without an expiry are given a default lifetime.
+    JSONObject token = makeToken("TOKEN", 0);
+    token.remove("expires_in");
+    cache.put(key, "password", "'app", token);
+    Assert.assertNotNull("Didn't reuse a token without an expiry", cache.get(key, "password"));
+  }
+
+  @Test
+  public void invalidatesTokens() throws Exception
+  {
+    TokenCache cache = new TokenCache();
+    String key = TokenCache.key("http://this.is.mber", "app", "user");
+    cache.put(key, "password", "'app", makeToken("TOKEN", 60 * 60));
+    cache.invalidate(key);
+    Assert.assertNull("Reused an invalidated token", cache.get(key, "password"));
+
+    // The client ID that worked is remembered, so the next login tries it first.
+    Assert.assertEquals("Forgot the client ID after invalidating the token", "'app", cache.getClientId(key));
+  }
+
+  private JSONObject makeToken(final String accessToken, final long expiresIn)
+  {
+    JSONObject token = MberJSON.success();
+    token.put("access_token", accessToken);
+    token.put("applicationId", "APPLICATIONID");
+    token.put("expires_in", expiresIn);
+    return token;
+  }
+}
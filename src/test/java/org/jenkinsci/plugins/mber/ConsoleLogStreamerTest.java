@@ -0,0 +1,125 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import com.mber.client.MberClient;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ConsoleLogStreamerTest
+{
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Before
+  public void setupWireMock()
+  {
+    JSONObject response = new JSONObject();
+    response.put("status", "Success");
+    response.put("url", "http://localhost:8089/segments/");
+    WireMock.stubFor(WireMock.post(WireMock.urlMatching("/service/json/data/upload/?"))
+      .willReturn(WireMock.aResponse().withStatus(200).withBody(response.toString()))
+    );
+    WireMock.stubFor(WireMock.put(WireMock.urlEqualTo("/segments/"))
+      .willReturn(WireMock.aResponse().withStatus(200))
+    );
+    WireMock.stubFor(WireMock.post(WireMock.urlMatching("/service/json/data/document/?"))
+      .willReturn(WireMock.aResponse().withStatus(200).withBody("{\"status\":\"Success\"}"))
+    );
+  }
+
+  @Test
+  public void shipsContiguousSegments() throws Exception
+  {
+    File log = File.createTempFile("jenkins-mber-plugin", "log");
+    log.deleteOnExit();
+    appendLines(log, 0, 5);
+
+    ConsoleLogStreamer streamer = new ConsoleLogStreamer(null, log, new MberClient("http://localhost:8089", "application"), "MOCKDIRECTORYID_AAAAAA", new String[0], 20, 0);
+
+    // Full segments end on a line break, so the partial line waits for the next segment.
+    Assert.assertTrue("Failed to flush full segments", streamer.flush());
+    List<LoggedRequest> puts = WireMock.findAll(WireMock.putRequestedFor(WireMock.urlEqualTo("/segments/")));
+    Assert.assertEquals("Didn't ship every full segment", 2, puts.size());
+    for (LoggedRequest put : puts) {
+      Assert.assertTrue("Split a line across segments", put.getBodyAsString().endsWith("\n"));
+    }
+
+    appendLines(log, 5, 3);
+    JSONObject response = streamer.finish();
+    Assert.assertEquals("Failed to finish streaming", "Success", response.getString("status"));
+
+    // The segments pick up exactly where the last one left off, and stitch back into the whole log.
+    puts = WireMock.findAll(WireMock.putRequestedFor(WireMock.urlEqualTo("/segments/")));
+    StringBuilder shipped = new StringBuilder();
+    for (LoggedRequest put : puts) {
+      shipped.append(put.getBodyAsString());
+    }
+    Assert.assertEquals("Segments don't add up to the log", FileUtils.readFileToString(log), shipped.toString());
+
+    List<LoggedRequest> documents = WireMock.findAll(WireMock.postRequestedFor(WireMock.urlMatching("/service/json/data/document/?")));
+    Assert.assertEquals("Didn't upload the manifest", 1, documents.size());
+    String content = JSONObject.fromObject(documents.get(0).getBodyAsString()).getString("content");
+    JSONObject manifest = JSONObject.fromObject(new String(Base64.decodeBase64(content), "UTF-8"));
+    Assert.assertEquals("Manifest has the wrong size", log.length(), manifest.getLong("size"));
+
+    JSONArray segments = manifest.getJSONArray("segments");
+    Assert.assertEquals("Manifest doesn't list every segment", puts.size(), segments.size());
+    long offset = 0;
+    for (int i = 0; i < segments.size(); ++i) {
+      JSONObject segment = segments.getJSONObject(i);
+      Assert.assertEquals("Segment "+i+" has the wrong name", String.format("console.log.%03d", i), segment.getString("name"));
+      Assert.assertEquals("Segment "+i+" doesn't start where the last one ended", offset, segment.getLong("offset"));
+      Assert.assertEquals("Segment "+i+" has the wrong size", puts.get(i).getBodyAsString().length(), segment.getLong("size"));
+      offset += segment.getLong("size");
+    }
+  }
+
+  private static void appendLines(final File file, final int first, final int count) throws IOException
+  {
+    FileWriter writer = new FileWriter(file, true);
+    try {
+      for (int i = first; i < first + count; ++i) {
+        writer.write(String.format("line %02d\n", i));
+      }
+    }
+    finally {
+      writer.close();
+    }
+  }
+}
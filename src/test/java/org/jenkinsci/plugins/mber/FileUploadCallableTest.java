@@ -24,16 +24,25 @@ THE SOFTWARE.
 */
 
 package org.jenkinsci.plugins.mber;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import hudson.model.BuildListener;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import net.sf.json.JSONObject;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class FileUploadCallableTest
 {
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
   @Test
   public void handlesInvalidUploads() throws Exception
   {
@@ -60,6 +69,162 @@ public class FileUploadCallableTest
     assertNotEmpty("No error message found", result.getString("error"));
   }
 
+  @Test
+  public void uploadsFilesInChunks() throws Exception
+  {
+    // Forty bytes, uploaded sixteen at a time.
+    File temp = File.createTempFile("jenkins-mber-plugin", "txt");
+    BufferedWriter io = new BufferedWriter(new FileWriter(temp));
+    io.write("0123456789012345678901234567890123456789");
+    io.close();
+
+    stubChunk("bytes 0-15/40", 308, "bytes=0-15");
+    stubChunk("bytes 16-31/40", 308, "bytes=0-31");
+    stubChunk("bytes 32-39/40", 200, null);
+
+    JSONObject result = (new FileUploadCallable("http://localhost:8089/chunks/", null, 16)).invoke(temp, null);
+    Assert.assertEquals("Failed to upload file in chunks", "Success", result.getString("status"));
+
+    WireMock.verify(1, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withHeader("Content-Range", WireMock.equalTo("bytes 0-15/40")));
+    WireMock.verify(1, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withHeader("Content-Range", WireMock.equalTo("bytes 16-31/40")));
+    WireMock.verify(1, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withHeader("Content-Range", WireMock.equalTo("bytes 32-39/40")));
+  }
+
+  @Test
+  public void resumesChunksFromAcknowledgedOffset() throws Exception
+  {
+    File temp = File.createTempFile("jenkins-mber-plugin", "txt");
+    BufferedWriter io = new BufferedWriter(new FileWriter(temp));
+    io.write("0123456789012345678901234567890123456789");
+    io.close();
+
+    // The server only kept the first eight bytes of the first chunk, so the upload resumes from there.
+    stubChunk("bytes 0-15/40", 308, "bytes=0-7");
+    stubChunk("bytes 8-23/40", 308, "bytes=0-23");
+    stubChunk("bytes 24-39/40", 200, null);
+
+    UploadProgress progress = new UploadProgress((BuildListener)null);
+    progress.expect(temp.length());
+    JSONObject result = (new FileUploadCallable("http://localhost:8089/chunks/", null, 16)).upload(temp, progress);
+    Assert.assertEquals("Failed to resume chunked upload", "Success", result.getString("status"));
+    Assert.assertEquals("Resent bytes were counted twice", temp.length(), progress.getBytesWritten());
+
+    WireMock.verify(1, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withHeader("Content-Range", WireMock.equalTo("bytes 8-23/40")));
+  }
+
+  @Test
+  public void resendsChunksWhenNothingWasStored() throws Exception
+  {
+    File temp = File.createTempFile("jenkins-mber-plugin", "txt");
+    BufferedWriter io = new BufferedWriter(new FileWriter(temp));
+    io.write("0123456789012345678901234567890123456789");
+    io.close();
+
+    // A 308 without a Range header means the server has none of the file, so the first chunk is sent again.
+    WireMock.stubFor(WireMock.put(WireMock.urlEqualTo("/chunks/"))
+      .inScenario("Nothing stored")
+      .whenScenarioStateIs(Scenario.STARTED)
+      .withHeader("Content-Range", WireMock.equalTo("bytes 0-15/40"))
+      .willReturn(WireMock.aResponse().withStatus(308))
+      .willSetStateTo("Stored")
+    );
+    WireMock.stubFor(WireMock.put(WireMock.urlEqualTo("/chunks/"))
+      .inScenario("Nothing stored")
+      .whenScenarioStateIs("Stored")
+      .withHeader("Content-Range", WireMock.equalTo("bytes 0-15/40"))
+      .willReturn(WireMock.aResponse().withStatus(308).withHeader("Range", "bytes=0-15"))
+    );
+    stubChunk("bytes 16-31/40", 308, "bytes=0-31");
+    stubChunk("bytes 32-39/40", 200, null);
+
+    UploadProgress progress = new UploadProgress((BuildListener)null);
+    progress.expect(temp.length());
+    JSONObject result = (new FileUploadCallable("http://localhost:8089/chunks/", null, 16)).upload(temp, progress);
+    Assert.assertEquals("Failed to resend a chunk that wasn't stored", "Success", result.getString("status"));
+    Assert.assertEquals("Resent bytes were counted twice", temp.length(), progress.getBytesWritten());
+
+    WireMock.verify(2, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withHeader("Content-Range", WireMock.equalTo("bytes 0-15/40")));
+    WireMock.verify(1, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withHeader("Content-Range", WireMock.equalTo("bytes 16-31/40")));
+  }
+
+  @Test
+  public void uploadsWholeFileWhenRangesAreIgnored() throws Exception
+  {
+    File temp = File.createTempFile("jenkins-mber-plugin", "txt");
+    BufferedWriter io = new BufferedWriter(new FileWriter(temp));
+    io.write("0123456789012345678901234567890123456789");
+    io.close();
+
+    // A plain PUT URL stores each chunk as the whole document, so the first chunk is accepted as if it were the file.
+    stubChunk("bytes 0-15/40", 200, null);
+    WireMock.stubFor(WireMock.put(WireMock.urlEqualTo("/chunks/"))
+      .withRequestBody(WireMock.equalTo("0123456789012345678901234567890123456789"))
+      .willReturn(WireMock.aResponse().withStatus(200))
+    );
+
+    JSONObject result = (new FileUploadCallable("http://localhost:8089/chunks/", null, 16)).invoke(temp, null);
+    Assert.assertEquals("Failed to fall back to a whole file upload", "Success", result.getString("status"));
+
+    WireMock.verify(0, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withHeader("Content-Range", WireMock.equalTo("bytes 16-31/40")));
+    WireMock.verify(1, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")).withRequestBody(WireMock.equalTo("0123456789012345678901234567890123456789")));
+  }
+
+  @Test
+  public void doesNotRetryRejectedChunks() throws Exception
+  {
+    File temp = File.createTempFile("jenkins-mber-plugin", "txt");
+    BufferedWriter io = new BufferedWriter(new FileWriter(temp));
+    io.write("0123456789012345678901234567890123456789");
+    io.close();
+
+    // An expired upload URL won't start working on a retry.
+    stubChunk("bytes 0-15/40", 403, null);
+
+    JSONObject result = (new FileUploadCallable("http://localhost:8089/chunks/", null, 16)).invoke(temp, null);
+    Assert.assertEquals("Uploaded rejected chunks unexpectedly", "Failed", result.getString("status"));
+    assertNotEmpty("No error message found for rejected chunk", result.getString("error"));
+
+    WireMock.verify(1, WireMock.putRequestedFor(WireMock.urlEqualTo("/chunks/")));
+  }
+
+  @Test
+  public void compressesTextArtifacts() throws Exception
+  {
+    File log = File.createTempFile("jenkins-mber-plugin", ".log");
+    BufferedWriter io = new BufferedWriter(new FileWriter(log));
+    io.write("This is a compression test for the Jenkins Mber Plugin.");
+    io.close();
+
+    WireMock.stubFor(WireMock.put(WireMock.urlEqualTo("/compressed/"))
+      .withHeader("Content-Encoding", WireMock.equalTo("gzip"))
+      .willReturn(WireMock.aResponse().withStatus(200))
+    );
+
+    JSONObject result = (new FileUploadCallable("http://localhost:8089/compressed/", null, 0, 0)).invoke(log, null);
+    Assert.assertEquals("Failed to upload compressed file", "Success", result.getString("status"));
+
+    // Binary artifacts are sent as is, whatever their size.
+    File zip = File.createTempFile("jenkins-mber-plugin", ".zip");
+    WireMock.stubFor(WireMock.put(WireMock.urlEqualTo("/uncompressed/"))
+      .willReturn(WireMock.aResponse().withStatus(200))
+    );
+    result = (new FileUploadCallable("http://localhost:8089/uncompressed/", null, 0, 0)).invoke(zip, null);
+    Assert.assertEquals("Failed to upload uncompressed file", "Success", result.getString("status"));
+    WireMock.verify(0, WireMock.putRequestedFor(WireMock.urlEqualTo("/uncompressed/")).withHeader("Content-Encoding", WireMock.equalTo("gzip")));
+  }
+
+  private void stubChunk(final String contentRange, final int status, final String range)
+  {
+    ResponseDefinitionBuilder response = WireMock.aResponse().withStatus(status);
+    if (range != null) {
+      response = response.withHeader("Range", range);
+    }
+    WireMock.stubFor(WireMock.put(WireMock.urlEqualTo("/chunks/"))
+      .withHeader("Content-Range", WireMock.equalTo(contentRange))
+      .willReturn(response)
+    );
+  }
+
   private void assertNotEmpty(final String message, final String value)
   {
     Assert.assertNotNull(message, value);
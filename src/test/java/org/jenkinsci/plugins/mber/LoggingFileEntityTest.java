@@ -0,0 +1,161 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import hudson.model.BuildListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.FileEntity;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class LoggingFileEntityTest
+{
+  private final static int FILE_SIZE = 64 * 1024 * 1024;
+  private final static int ROUNDS = 5;
+
+  @Test
+  public void writesWholeFile() throws Exception
+  {
+    File temp = makeTempFile(FileStreamer.BUFFER_SIZE * 3 + 17);
+    CountingOutputStream output = new CountingOutputStream();
+    (new LoggingFileEntity(temp, (BuildListener)null)).writeTo(output);
+    Assert.assertEquals("Didn't write every byte of the file", temp.length(), output.count);
+  }
+
+  @Test
+  public void writesFileRanges() throws Exception
+  {
+    File temp = makeTempFile(FileStreamer.BUFFER_SIZE * 2);
+    CountingOutputStream output = new CountingOutputStream();
+    (new FileRangeEntity(temp, 100, FileStreamer.BUFFER_SIZE + 5)).writeTo(output);
+    Assert.assertEquals("Didn't write every byte of the range", FileStreamer.BUFFER_SIZE + 5, output.count);
+  }
+
+  @Test
+  public void writesFileContentAndCountsProgress() throws Exception
+  {
+    File temp = makeTempFile(FileStreamer.BUFFER_SIZE + 1234);
+    UploadProgress progress = new UploadProgress((BuildListener)null);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    (new LoggingFileEntity(temp, progress)).writeTo(output);
+    Assert.assertArrayEquals("Wrote different bytes than the file has", FileUtils.readFileToByteArray(temp), output.toByteArray());
+    Assert.assertEquals("Didn't count every byte written", temp.length(), progress.getBytesWritten());
+  }
+
+  @Test
+  public void countsResentBodiesOnce() throws Exception
+  {
+    File temp = makeTempFile(FileStreamer.BUFFER_SIZE + 17);
+    UploadProgress progress = new UploadProgress((BuildListener)null);
+    LoggingFileEntity entity = new LoggingFileEntity(temp, progress);
+    entity.writeTo(new CountingOutputStream());
+    entity.writeTo(new CountingOutputStream());
+    Assert.assertEquals("Counted a resent body twice", temp.length(), progress.getBytesWritten());
+  }
+
+  @Ignore("Benchmark. Writes a 64 MB file and streams it repeatedly, so it's too slow for every test run.")
+  @Test
+  public void benchmarkThroughput() throws Exception
+  {
+    // Compares the stock FileEntity against the channel backed LoggingFileEntity.
+    File temp = makeTempFile(FILE_SIZE);
+    FileEntity stock = new FileEntity(temp);
+    LoggingFileEntity logging = new LoggingFileEntity(temp, (BuildListener)null);
+
+    // Warm up both paths before timing them.
+    measure(stock);
+    measure(logging);
+
+    long stockNanos = 0;
+    long loggingNanos = 0;
+    for (int i = 0; i < ROUNDS; ++i) {
+      stockNanos += measure(stock);
+      loggingNanos += measure(logging);
+    }
+    Assert.assertTrue("LoggingFileEntity was slower than FileEntity ("+toMegabytesPerSecond(loggingNanos)+" vs "+toMegabytesPerSecond(stockNanos)+" MB/s)", loggingNanos <= stockNanos + stockNanos / 10);
+  }
+
+  private long measure(final HttpEntity entity) throws IOException
+  {
+    CountingOutputStream output = new CountingOutputStream();
+    long start = System.nanoTime();
+    entity.writeTo(output);
+    long elapsed = System.nanoTime() - start;
+    Assert.assertEquals("Didn't write every byte of the file", FILE_SIZE, output.count);
+    return elapsed;
+  }
+
+  private long toMegabytesPerSecond(final long nanos)
+  {
+    double seconds = nanos / 1e9;
+    return Math.round((double)FILE_SIZE * ROUNDS / (1024 * 1024) / seconds);
+  }
+
+  private File makeTempFile(final int size) throws IOException
+  {
+    File temp = File.createTempFile("jenkins-mber-plugin", "bin");
+    temp.deleteOnExit();
+    byte[] block = new byte[64 * 1024];
+    new Random(size).nextBytes(block);
+    FileOutputStream output = new FileOutputStream(temp);
+    try {
+      int remaining = size;
+      while (remaining > 0) {
+        int length = Math.min(block.length, remaining);
+        output.write(block, 0, length);
+        remaining -= length;
+      }
+    }
+    finally {
+      output.close();
+    }
+    return temp;
+  }
+
+  private static class CountingOutputStream extends OutputStream
+  {
+    private long count;
+
+    @Override
+    public void write(int b)
+    {
+      ++count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+      count += len;
+    }
+  }
+}
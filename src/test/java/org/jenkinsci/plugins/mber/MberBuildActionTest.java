@@ -0,0 +1,56 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import com.mber.client.HTTParty;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MberBuildActionTest
+{
+  @Test
+  public void keepsRecentCalls() throws Exception
+  {
+    List<CallRecord> calls = new ArrayList<CallRecord>();
+    for (int i = 0; i < 250; ++i) {
+      calls.add(CallRecord.from(new HTTParty.Call("GET", new URI("http://this.is.mber/call/"+i+"?access_token=secret"), 200, "{\"status\":\"Success\"}")));
+    }
+
+    MberBuildAction action = new MberBuildAction();
+    action.recordCalls(calls);
+
+    List<CallRecord> history = action.getCallHistory();
+    Assert.assertEquals("Didn't bound the call history", 200, history.size());
+    Assert.assertEquals("Didn't count dropped calls", 50, action.getDroppedCalls());
+    Assert.assertEquals("Didn't drop the oldest calls first", "http://this.is.mber/call/50", history.get(0).getUri());
+    Assert.assertEquals("Didn't hash the response body", 16, history.get(0).getBodyHash().length());
+
+    action.clearCallHistory();
+    Assert.assertTrue("Didn't clear the call history", action.getCallHistory().isEmpty());
+  }
+}
@@ -81,7 +81,7 @@ public class MberNotifierTest
   public void testConfigRoundtrip() throws Exception
   {
     FreeStyleProject project = jenkinsRule.createFreeStyleProject();
-    MberNotifier before = new MberNotifier("application", "username", "password", "build name", "build description", true, true, new UploadArtifactsBlock("files", "folder", "${BUILD_NUMBER}", true));
+    MberNotifier before = new MberNotifier("application", "username", "password", "build name", "build description", true, true, true, new UploadArtifactsBlock("files", "folder", "${BUILD_NUMBER}", true));
     project.getPublishersList().add(before);
     submitProjectConfig(project);
     MberNotifier after = project.getPublishersList().get(MberNotifier.class);
@@ -109,6 +109,7 @@ public class MberNotifierTest
     assertEquals("Username didn't match", expected.getUsername(), actual.getUsername());
     assertEquals("Password didn't match", expected.getPassword(), actual.getPassword());
     assertEquals("Will upload console log didn't match", expected.isUploadConsoleLog(), actual.isUploadConsoleLog());
+    assertEquals("Will stream console log didn't match", expected.isStreamConsoleLog(), actual.isStreamConsoleLog());
     assertEquals("Will upload test results didn't match", expected.isUploadTestResults(), actual.isUploadTestResults());
     assertEquals("Will upload artifacts didn't match", expected.isUploadArtifacts(), actual.isUploadArtifacts());
     assertEquals("Upload folders didn't match", expected.getArtifactFolder(), actual.getArtifactFolder());
@@ -0,0 +1,96 @@
+/*
+The Jenkins Mber Plugin is free software distributed under the terms of the MIT
+license (http://opensource.org/licenses/mit-license.html) reproduced here:
+
+Copyright (c) 2013-2015 Mber
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package org.jenkinsci.plugins.mber;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TemplateTest
+{
+  @Test
+  public void bindsEnvironmentVariables()
+  {
+    Map<String, String> env = new HashMap<String, String>();
+    env.put("JOB_NAME", "mber");
+    env.put("BUILD_NUMBER", "42");
+    Template template = Template.compile("build/jenkins/${JOB_NAME}/$BUILD_NUMBER").bind(env);
+    Assert.assertTrue("Environment variables alone aren't constant", template.isConstant());
+    Assert.assertEquals("Didn't bind environment variables", "build/jenkins/mber/42", template.render(Template.Variables.NONE));
+  }
+
+  @Test
+  public void keepsUnresolvedVariables()
+  {
+    Template template = Template.compile("${MISSING}-$ALSO_MISSING").bind(new HashMap<String, String>());
+    Assert.assertEquals("Didn't keep unresolved variables as written", "${MISSING}-$ALSO_MISSING", template.render(Template.Variables.NONE));
+  }
+
+  @Test
+  public void rendersArtifactVariables()
+  {
+    Map<String, String> env = new HashMap<String, String>();
+    env.put("JOB_NAME", "mber");
+    Template template = Template.compile("${JOB_NAME}/${ARTIFACT_DIR}/${ARTIFACT_EXT}-${ARTIFACT_SIZE}/${ARTIFACT_NAME}").bind(env);
+    Assert.assertFalse("Artifact variables are constant", template.isConstant());
+    Assert.assertTrue("Didn't notice the artifact size", template.usesArtifactSize());
+    Template.Variables variables = new Template.Variables("target/classes/plugin.jar", 1024);
+    Assert.assertEquals("Didn't render artifact variables", "mber/target/classes/jar-1024/plugin.jar", template.render(variables));
+    Assert.assertEquals("Wrong artifact directory", "target/classes", variables.getDirectory());
+    Assert.assertEquals("Wrong artifact name", "plugin.jar", variables.getName());
+  }
+
+  @Test
+  public void leavesMissingArtifactVariablesEmpty()
+  {
+    Template template = Template.compile("${ARTIFACT_EXT}${ARTIFACT_SIZE}").bind(new HashMap<String, String>());
+    Assert.assertTrue("Didn't notice the artifact size", template.usesArtifactSize());
+    Assert.assertEquals("Rendered missing artifact variables", "", template.render(new Template.Variables(".project", -1)));
+  }
+
+  @Test
+  public void endsBareVariablesAtDots()
+  {
+    // Like Jenkins, only the braced form takes dots, so $VAR.ext is a variable and an extension.
+    Map<String, String> env = new HashMap<String, String>();
+    env.put("JOB_NAME", "mber");
+    env.put("JOB.NAME", "dotted");
+    Template template = Template.compile("$JOB_NAME.zip ${JOB.NAME}.zip").bind(env);
+    Assert.assertEquals("Read the extension as part of a bare variable", "mber.zip dotted.zip", template.render(Template.Variables.NONE));
+    Assert.assertEquals("Read the extension as part of an artifact variable", "plugin.jar", Template.compile("$ARTIFACT_NAME.jar").render(new Template.Variables("target/plugin", -1)));
+  }
+
+  @Test
+  public void escapesDollarSigns()
+  {
+    Map<String, String> env = new HashMap<String, String>();
+    env.put("JOB_NAME", "mber");
+    Template template = Template.compile("$$JOB_NAME-$$${JOB_NAME}-$$$JOB_NAME").bind(env);
+    Assert.assertTrue("Escaped dollar signs aren't constant", template.isConstant());
+    Assert.assertEquals("Didn't render $$ as a literal $", "$JOB_NAME-$mber-$mber", template.render(Template.Variables.NONE));
+    Assert.assertFalse("Treated an escaped variable as a variable", Template.compile("$$BUILD_NUMBER").usesEnvironmentVariable("BUILD_NUMBER"));
+  }
+}